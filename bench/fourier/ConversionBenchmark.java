@@ -0,0 +1,70 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The byte and int conversions the Recorder and Player run on every block,
+ * over a Recorder.CHUNK of samples.
+ *
+ * @author benland100
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    private int[] samples;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        samples = Inputs.samples(SoundUtils.Recorder.CHUNK);
+        bytes = new byte[samples.length * 4];
+        SoundUtils.encode(samples, 0, bytes, 0, samples.length);
+    }
+
+    @Benchmark
+    public int[] decode() {
+        SoundUtils.decode(bytes, 0, samples, 0, samples.length);
+        return samples;
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        SoundUtils.encode(samples, 0, bytes, 0, samples.length);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,77 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SoundUtils.fourier over powers of two and awkward lengths, for a narrow
+ * band that favours Goertzel and wider ones that need the full FFT.
+ *
+ * @author benland100
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FourierBenchmark {
+
+    @Param({ "4096", "44100", "65536", "441000" })
+    public int length;
+
+    /** min:max frequency in Hz */
+    @Param({ "1000:1010", "100:11000", "0:22050" })
+    public String band;
+
+    private int[] samples;
+    private double min_freq, max_freq;
+
+    @Setup
+    public void setup() {
+        samples = Inputs.samples(length);
+        String[] parts = band.split(":");
+        min_freq = Double.parseDouble(parts[0]);
+        max_freq = Double.parseDouble(parts[1]);
+    }
+
+    @Benchmark
+    public SoundPrint fourier() {
+        return SoundUtils.fourier(samples, min_freq, max_freq);
+    }
+
+    @Benchmark
+    public SoundPrint fourierParallel() {
+        return SoundUtils.fourier(samples, min_freq, max_freq, Runtime.getRuntime().availableProcessors());
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Fixed synthetic inputs shared by the benchmarks, so every run and every
+ * engine sees exactly the same data.
+ *
+ * @author benland100
+ */
+final class Inputs {
+
+    final static long SEED = 0x464f55524945524cL;
+
+    private Inputs() {
+    }
+
+    /**
+     * A few steady tones over low level noise, about half of full scale.
+     */
+    static int[] samples(int length) {
+        Random random = new Random(SEED);
+        double[] freqs = { 220D, 440D, 1250D, 3300D, 7100D };
+        int[] samples = new int[length];
+        for (int i = 0; i < length; i++) {
+            double t = i / SoundUtils.SAMPLE_RATE, value = random.nextGaussian() * 0.01;
+            for (int f = 0; f < freqs.length; f++) {
+                value += 0.1 * Math.sin(2D * Math.PI * freqs[f] * t + f);
+            }
+            samples[i] = (int) (value * Integer.MAX_VALUE);
+        }
+        return samples;
+    }
+
+    /**
+     * Components with random amplitudes and phases spread over the audible
+     * band, indexed like the bins of a print.
+     */
+    static TreeSet<SoundPrint.FourierData> components(int count) {
+        Random random = new Random(SEED);
+        TreeSet<SoundPrint.FourierData> data = new TreeSet<SoundPrint.FourierData>();
+        for (int i = 0; i < count; i++) {
+            double freq = 100D + (11000D - 100D) * i / Math.max(1, count);
+            data.add(new SoundPrint.FourierData(i, freq, random.nextDouble(), (random.nextDouble() * 2D - 1D) * Math.PI));
+        }
+        return data;
+    }
+
+    /**
+     * The print of a second of samples.
+     */
+    static SoundPrint print() {
+        return SoundUtils.fourier(samples((int) SoundUtils.SAMPLE_RATE), 100D, 11000D);
+    }
+
+}
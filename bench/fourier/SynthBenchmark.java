@@ -0,0 +1,70 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SoundPrint.genSound of a second of sound on either side of
+ * SoundPrint.SPECTRAL_CROSSOVER.
+ *
+ * @author benland100
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SynthBenchmark {
+
+    @Param({ "8", "64", "65", "512", "4096" })
+    public int components;
+
+    private TreeSet<SoundPrint.FourierData> data;
+
+    @Setup
+    public void setup() {
+        data = Inputs.components(components);
+    }
+
+    @Benchmark
+    public int[] genSound() {
+        return SoundPrint.genSound(data, 1D);
+    }
+
+    @Benchmark
+    public int[] genSoundParallel() {
+        return SoundPrint.genSound(data, 1D, Runtime.getRuntime().availableProcessors());
+    }
+
+}
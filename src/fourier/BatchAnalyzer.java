@@ -0,0 +1,262 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.io.File;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless batch fingerprinting. Every audio file given, or found under the
+ * directories given, is decoded, transformed with SoundUtils.fourier and its
+ * peaks above a threshold written as a SoundPrintFile to the output directory,
+ * mirroring the input directories.
+ *
+ * Files are processed by a fixed number of worker threads. Before a file is
+ * queued its working memory is estimated and reserved from a budget: the
+ * decoded samples, the real FFT plan for its length, radix-2 or Bluestein,
+ * and the print of its bins. The most the FFT plan caches can keep idle is
+ * set aside from the budget up front, so the samples, plans and prints in
+ * flight and cached never exceed it however many or large the files are. A
+ * file that would need more than the whole budget fails. Throughput is
+ * reported while running and at the end.
+ *
+ * @author benland100
+ */
+public class BatchAnalyzer {
+
+    /** Format files are decoded to, half the size of PCM_32 */
+    public final static SampleFormat FORMAT = SampleFormat.PCM_16;
+    /**
+     * Working memory estimated per bin of a print: its three columns, the
+     * ranking and its scratch array, and the peaks written out of it, at most
+     * one every other bin, as TreeSet entries and encoded
+     */
+    public final static int BYTES_PER_BIN = 96;
+    /** Memory the FFT and real FFT plan caches may hold on to between files */
+    public final static long CACHED_PLAN_BYTES = 8 * (FFT.CACHE_LIMIT + RealFFT.CACHE_LIMIT);
+    public final static int REPORT_SECONDS = 5;
+    public final static String EXTENSION = ".sprt";
+
+    private final static DecimalFormat onedec = new DecimalFormat("#0.0");
+
+    private final File output;
+    private final int threads;
+    private final int budget;
+    private final double threshold, min_freq, max_freq;
+    private final boolean floats;
+
+    private final Semaphore memory;
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong samples = new AtomicLong();
+    private long started;
+
+    /**
+     * An analyzer writing prints to output with the given number of worker
+     * threads and at most megabytes of samples, transforms and prints in
+     * flight or cached, of which CACHED_PLAN_BYTES go to the plan caches.
+     */
+    public BatchAnalyzer(File output, int threads, int megabytes, double threshold, double min_freq, double max_freq, boolean floats) {
+        this.output = output;
+        this.threads = threads;
+        this.budget = (int) Math.max(0, (megabytes << 10) - (CACHED_PLAN_BYTES >> 10));
+        this.threshold = threshold;
+        this.min_freq = min_freq;
+        this.max_freq = max_freq;
+        this.floats = floats;
+        memory = new Semaphore(budget);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Metrics.register();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int megabytes = (int) Math.max((CACHED_PLAN_BYTES >> 20) + 64, Runtime.getRuntime().maxMemory() / 2 >> 20);
+        double threshold = 0.2, min_freq = CaptureFrame.FREQ_MIN, max_freq = CaptureFrame.FREQ_MAX;
+        boolean floats = true;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i++) {
+            String opt = args[i];
+            if (opt.equals("-doubles")) {
+                floats = false;
+            } else if (i + 1 < args.length) {
+                String value = args[++i];
+                if (opt.equals("-threads")) {
+                    threads = Integer.parseInt(value);
+                } else if (opt.equals("-memory")) {
+                    megabytes = Integer.parseInt(value);
+                } else if (opt.equals("-threshold")) {
+                    threshold = Double.parseDouble(value);
+                } else if (opt.equals("-min")) {
+                    min_freq = Double.parseDouble(value);
+                } else if (opt.equals("-max")) {
+                    max_freq = Double.parseDouble(value);
+                } else {
+                    usage();
+                    return;
+                }
+            } else {
+                usage();
+                return;
+            }
+        }
+        if (args.length - i < 2 || threads < 1 || megabytes <= CACHED_PLAN_BYTES >> 20) {
+            usage();
+            return;
+        }
+        File output = new File(args[i++]);
+        List<File> inputs = new ArrayList<File>();
+        List<String> names = new ArrayList<String>();
+        for (; i < args.length; i++) {
+            File input = new File(args[i]);
+            if (input.isDirectory()) {
+                collect(input, "", inputs, names);
+            } else {
+                inputs.add(input);
+                names.add(input.getName());
+            }
+        }
+        BatchAnalyzer analyzer = new BatchAnalyzer(output, threads, megabytes, threshold, min_freq, max_freq, floats);
+        analyzer.run(inputs, names);
+        System.exit(analyzer.failed.get() == 0 ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: BatchAnalyzer [-threads n] [-memory mb] [-threshold t] [-min hz] [-max hz] [-doubles] <output dir> <file or dir>...");
+        System.err.println("The memory budget must exceed the " + (CACHED_PLAN_BYTES >> 20) + "MB the transform plan caches may hold.");
+    }
+
+    static void collect(File dir, String prefix, List<File> inputs, List<String> names) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collect(file, prefix + file.getName() + File.separator, inputs, names);
+            } else {
+                inputs.add(file);
+                names.add(prefix + file.getName());
+            }
+        }
+    }
+
+    /**
+     * Analyzes inputs, writing the print of each to the path of its name,
+     * with EXTENSION in place of its own, under the output directory. Blocks
+     * until every file is done.
+     */
+    public void run(List<File> inputs, List<String> names) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        Timer timer = new Timer(true);
+        started = System.nanoTime();
+        timer.schedule(new TimerTask() {
+            public void run() {
+                report("");
+            }
+        }, REPORT_SECONDS * 1000L, REPORT_SECONDS * 1000L);
+        try {
+            for (int i = 0; i < inputs.size(); i++) {
+                final File input = inputs.get(i);
+                final File print = new File(output, strip(names.get(i)) + EXTENSION);
+                final int cost;
+                try {
+                    long bytes = cost(SoundUtils.frames(input));
+                    if (bytes >> 10 >= budget) {
+                        throw new Exception("Needs " + (bytes >> 20) + "MB, more than the memory budget");
+                    }
+                    cost = (int) (bytes >> 10) + 1;
+                } catch (Exception e) {
+                    fail(input, e);
+                    continue;
+                }
+                memory.acquire(cost);
+                workers.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            analyze(input, print);
+                        } catch (Throwable e) {
+                            fail(input, e);
+                        } finally {
+                            memory.release(cost);
+                        }
+                    }
+                });
+            }
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            timer.cancel();
+        }
+        report("Finished ");
+    }
+
+    /**
+     * Estimated bytes needed to analyze a file of the given number of frames.
+     */
+    private long cost(long frames) {
+        if (frames < 0 || frames > Integer.MAX_VALUE / 2) {
+            return Long.MAX_VALUE;
+        }
+        int n = (int) frames;
+        long bins = (long) (n / SoundUtils.SAMPLE_RATE * max_freq) - (long) (n / SoundUtils.SAMPLE_RATE * min_freq) + 1;
+        return (long) n * FORMAT.bytes + 8L * RealFFT.size(n) + BYTES_PER_BIN * Math.max(0, bins);
+    }
+
+    private void analyze(File input, File print) throws Exception {
+        Samples data = SoundUtils.read(input, FORMAT);
+        SoundPrint fourier = SoundUtils.fourier(data, min_freq, max_freq);
+        File dir = print.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new Exception("Could not create " + dir);
+        }
+        SoundPrintFile.write(fourier.getPeaks(threshold), print, floats);
+        samples.addAndGet(data.length);
+        done.incrementAndGet();
+    }
+
+    private void fail(File input, Throwable e) {
+        failed.incrementAndGet();
+        Metrics.error(e);
+        System.err.println("Failed " + input + ": " + e);
+    }
+
+    private static String strip(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > name.lastIndexOf(File.separatorChar) ? name.substring(0, dot) : name;
+    }
+
+    private void report(String prefix) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - started) / 1e9);
+        int files = done.get();
+        System.out.println(prefix + files + " files (" + failed.get() + " failed) in " + onedec.format(seconds) + "s, "
+                + onedec.format(files / seconds) + " files/s, " + onedec.format(samples.get() / seconds / 1e6) + "M samples/s");
+    }
+
+}
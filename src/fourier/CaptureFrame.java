@@ -23,9 +23,12 @@ import java.awt.BorderLayout;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.Timer;
 
 /**
  *
@@ -35,6 +38,11 @@ public class CaptureFrame extends JFrame implements ActionListener {
 
     public final static float FREQ_MIN = 100f;
     public final static float FREQ_MAX = 11000f;
+    public final static int LIVE_WINDOW = 4096;
+    public final static int LIVE_FPS = 60;
+    public final static int SPECTROGRAM_WINDOW = 2048;
+    /** Times a second the waveform is extended while recording */
+    public final static int WAVEFORM_FPS = 20;
 
     private SoundUtils.Recorder recorder = new SoundUtils.Recorder();
     private SoundView view = new SoundView();
@@ -42,8 +50,16 @@ public class CaptureFrame extends JFrame implements ActionListener {
     private JButton stop = new JButton("Stop");
     private JButton play = new JButton("Play");
     private JButton fourier = new JButton("Fourier");
+    private JButton live = new JButton("Live");
+    private JButton spectrogram = new JButton("Spectrogram");
+    private JFrame live_frame = null;
+    private FourierView live_view = null;
+    private Timer waveform = null;
+    private SampleRing.Cursor waveform_cursor = null;
+    private final int[] waveform_block = new int[SoundUtils.Recorder.READ_FRAMES * 4];
 
     public static void main(String[] args) {
+        Metrics.register();
         CaptureFrame frame = new CaptureFrame();
         frame.setVisible(true);
     }
@@ -64,7 +80,18 @@ public class CaptureFrame extends JFrame implements ActionListener {
         fourier.addActionListener(this);
         fourier.setEnabled(false);
         south.add(fourier);
+        live.addActionListener(this);
+        live.setEnabled(false);
+        south.add(live);
+        spectrogram.addActionListener(this);
+        spectrogram.setEnabled(false);
+        south.add(spectrogram);
         add(south,BorderLayout.SOUTH);
+        addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent e) {
+                SoundUtils.closeLines();
+            }
+        });
         setSize(600,300);
     }
 
@@ -74,24 +101,61 @@ public class CaptureFrame extends JFrame implements ActionListener {
             return;
         }
         fourier.setEnabled(false);
+        spectrogram.setEnabled(false);
         play.setEnabled(false);
         start.setEnabled(false);
         stop.setEnabled(true);
+        live.setEnabled(true);
         view.setSamples(new int[0]);
+        waveform_cursor = recorder.getRing().cursor();
+        waveform = new Timer(1000 / WAVEFORM_FPS, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                drainWaveform();
+            }
+        });
+        waveform.start();
         recorder.startRecording();
     }
 
+    /**
+     * Appends the samples captured since the last call to the view, so its
+     * waveform pyramid grows with the recording.
+     */
+    private void drainWaveform() {
+        int read;
+        while ((read = waveform_cursor.read(waveform_block, 0, waveform_block.length)) > 0) {
+            view.appendSamples(waveform_block, 0, read);
+        }
+    }
+
     private void stop() {
         if (!recorder.recording()) {
             System.out.println("Not Recording!");
             return;
         }
         recorder.stopRecording();
+        waveform.stop();
+        drainWaveform();
+        if (live_view != null) {
+            live_view.stopLive();
+        }
+        live.setEnabled(false);
         play.setEnabled(true);
         fourier.setEnabled(true);
+        spectrogram.setEnabled(true);
         start.setEnabled(true);
         stop.setEnabled(false);
-        view.setSamples(recorder.getSamples());
+        if (waveform_cursor.lost() > 0) {
+            view.setSamples(new int[0]);
+        }
+        // fill in whatever the view missed straight from the recorded chunks
+        for (int from = view.getLength(), len; from < recorder.getLength(); from += len) {
+            len = Math.min(waveform_block.length, recorder.getLength() - from);
+            recorder.getSamples(from, waveform_block, 0, len);
+            view.appendSamples(waveform_block, 0, len);
+        }
+        waveform = null;
+        waveform_cursor = null;
         recorder = new SoundUtils.Recorder();
     }
 
@@ -118,7 +182,7 @@ public class CaptureFrame extends JFrame implements ActionListener {
         start.setEnabled(false);
         Thread t = new Thread() {
             public void run() {
-                FourierFrame frame = new FourierFrame(SoundUtils.fourier(view.getSelection(), FREQ_MIN, FREQ_MAX));
+                FourierFrame frame = new FourierFrame(SoundUtils.fourier(view.getSelection(), FREQ_MIN, FREQ_MAX, Runtime.getRuntime().availableProcessors()));
                 frame.setVisible(true);
                 play.setEnabled(true);
                 fourier.setEnabled(true);
@@ -128,6 +192,31 @@ public class CaptureFrame extends JFrame implements ActionListener {
         t.start();
     }
 
+    private void live() {
+        if (live_frame == null) {
+            live_frame = new JFrame("Live Spectrum");
+            live_view = new FourierView();
+            live_frame.add(live_view);
+            live_frame.setSize(600,300);
+            live_frame.addWindowListener(new WindowAdapter() {
+                public void windowClosing(WindowEvent e) {
+                    live_view.stopLive();
+                }
+            });
+        }
+        live_view.startLive(recorder.getRing(), LIVE_WINDOW, STFT.Window.HANN, FREQ_MIN, FREQ_MAX, LIVE_FPS);
+        live_frame.setVisible(true);
+    }
+
+    private void spectrogram() {
+        JFrame frame = new JFrame("Spectrogram");
+        SpectrogramView gram = new SpectrogramView(SPECTROGRAM_WINDOW, STFT.Window.HANN, FREQ_MIN, FREQ_MAX);
+        frame.add(gram);
+        frame.setSize(600,300);
+        frame.setVisible(true);
+        gram.setSamples(view.getSelection());
+    }
+
     public void actionPerformed(ActionEvent e) {
         Object o = e.getSource();
         if (o == start) {
@@ -138,6 +227,10 @@ public class CaptureFrame extends JFrame implements ActionListener {
             play();
         } else if (o == fourier) {
             fourier();
+        } else if (o == live) {
+            live();
+        } else if (o == spectrogram) {
+            spectrogram();
         }
     }
 
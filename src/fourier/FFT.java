@@ -0,0 +1,275 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Forward complex FFT of a fixed length. Powers of two are handled with an
+ * iterative radix-2 transform, any other length is reduced to a power of two
+ * convolution with Bluestein's algorithm, so every length is O(N log N).
+ *
+ * A plan holds the twiddle factors, bit reversal permutation and scratch
+ * buffers for its length and is not safe to share between threads. Use
+ * acquire/release to borrow plans from a bounded LRU cache so repeated
+ * transforms of the same length skip all setup and allocation.
+ *
+ * Transforms may be split across a ForkJoinPool. Each butterfly performs the
+ * same arithmetic either way, so parallel results are bit-identical to the
+ * sequential ones.
+ *
+ * @author benland100
+ */
+public class FFT implements PlanCache.Plan {
+
+    /** Butterflies below which a transform stage is not split any further */
+    public final static int PARALLEL_GRAIN = 1 << 13;
+
+    /** Upper bound on the number of table and buffer entries held by idle plans */
+    public final static long CACHE_LIMIT = 1L << 23;
+
+    private final static PlanCache<FFT> cache = new PlanCache<FFT>(CACHE_LIMIT);
+    private final static Kernels kernels = Kernels.get();
+
+    public final int length;
+    /** Scratch input/output buffers of this plan's length */
+    public final double[] real, imag;
+
+    private final int[] rev;
+    private final double[] tw_real, tw_imag;
+
+    private final FFT conv;
+    private final double[] chirp_real, chirp_imag;
+    private final double[] kern_real, kern_imag;
+
+    public FFT(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("FFT length must not be negative");
+        }
+        this.length = length;
+        real = new double[length];
+        imag = new double[length];
+        if (isPowerOfTwo(length)) {
+            rev = new int[length];
+            int bits = Integer.numberOfTrailingZeros(Math.max(length, 1));
+            for (int i = 0; i < length; i++) {
+                rev[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+            }
+            // twiddles for the stage with half size h are stored at [h, 2h)
+            tw_real = new double[Math.max(length, 1)];
+            tw_imag = new double[Math.max(length, 1)];
+            for (int h = 1; h < length; h <<= 1) {
+                for (int j = 0; j < h; j++) {
+                    tw_real[h + j] = Math.cos(-Math.PI * j / h);
+                    tw_imag[h + j] = Math.sin(-Math.PI * j / h);
+                }
+            }
+            conv = null;
+            chirp_real = chirp_imag = kern_real = kern_imag = null;
+        } else {
+            rev = null;
+            tw_real = tw_imag = null;
+            int m = Integer.highestOneBit(2 * length - 1) << 1;
+            conv = new FFT(m);
+            chirp_real = new double[length];
+            chirp_imag = new double[length];
+            kern_real = new double[m];
+            kern_imag = new double[m];
+            final long mod = 2L * length;
+            for (int k = 0; k < length; k++) {
+                double angle = Math.PI * (((long) k * k) % mod) / length;
+                chirp_real[k] = Math.cos(angle);
+                chirp_imag[k] = -Math.sin(angle);
+            }
+            kern_real[0] = chirp_real[0];
+            kern_imag[0] = -chirp_imag[0];
+            for (int k = 1; k < length; k++) {
+                kern_real[k] = kern_real[m - k] = chirp_real[k];
+                kern_imag[k] = kern_imag[m - k] = -chirp_imag[k];
+            }
+            conv.transform(kern_real, kern_imag);
+        }
+    }
+
+    /**
+     * Borrows a plan for the given length, reusing a cached one if available.
+     * The plan should be handed back with release when no longer needed.
+     */
+    public static FFT acquire(int length) {
+        FFT plan = cache.take(length);
+        return plan == null ? new FFT(length) : plan;
+    }
+
+    /**
+     * Returns a plan to the cache, evicting the least recently used lengths
+     * while the cache is over CACHE_LIMIT.
+     */
+    public static void release(FFT plan) {
+        cache.give(plan);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Number of table and buffer entries held by this plan.
+     */
+    public long size() {
+        return size(length);
+    }
+
+    /**
+     * Number of table and buffer entries a plan of the given length holds,
+     * without building it.
+     */
+    public static long size(int length) {
+        long size = 2L * length;
+        if (isPowerOfTwo(length)) {
+            size += length + 2L * Math.max(length, 1);
+        } else {
+            int m = Integer.highestOneBit(2 * length - 1) << 1;
+            size += 2L * length + 2L * m + size(m);
+        }
+        return size;
+    }
+
+    public static boolean isPowerOfTwo(int n) {
+        return (n & (n - 1)) == 0;
+    }
+
+    /**
+     * Replaces real/imag (at least length long) with their discrete fourier
+     * transform, X[k] = sum x[j]*e^(-2*pi*i*j*k/N).
+     */
+    public void transform(double[] real, double[] imag) {
+        transform(real, imag, null);
+    }
+
+    /**
+     * Same as transform(real, imag), but splits the work over the given pool
+     * when it is not null and the transform is large enough to benefit.
+     */
+    public void transform(double[] real, double[] imag, ForkJoinPool pool) {
+        if (length <= 1) {
+            return;
+        }
+        if (pool != null && length / 2 < PARALLEL_GRAIN * 2) {
+            pool = null;
+        }
+        if (conv == null) {
+            radix2(real, imag, pool);
+        } else {
+            bluestein(real, imag, pool);
+        }
+    }
+
+    private void radix2(double[] real, double[] imag, ForkJoinPool pool) {
+        if (pool == null) {
+            reverse(real, imag, 0, length);
+            for (int h = 1; h < length; h <<= 1) {
+                butterflies(real, imag, h, 0, length / 2);
+            }
+        } else {
+            pool.invoke(new Stage(real, imag, 0, 0, length));
+            for (int h = 1; h < length; h <<= 1) {
+                pool.invoke(new Stage(real, imag, h, 0, length / 2));
+            }
+        }
+    }
+
+    private void reverse(double[] real, double[] imag, int from, int to) {
+        double t;
+        for (int i = from; i < to; i++) {
+            int j = rev[i];
+            if (j > i) {
+                t = real[i]; real[i] = real[j]; real[j] = t;
+                t = imag[i]; imag[i] = imag[j]; imag[j] = t;
+            }
+        }
+    }
+
+    /**
+     * Performs butterflies [from, to) of the stage with half size h.
+     */
+    private void butterflies(double[] real, double[] imag, int h, int from, int to) {
+        kernels.butterflies(real, imag, tw_real, tw_imag, h, from, to);
+    }
+
+    /**
+     * One radix-2 stage (or the bit reversal when h is 0) over a range of
+     * butterflies, recursively split in half down to PARALLEL_GRAIN.
+     */
+    private class Stage extends RecursiveAction {
+
+        private final double[] real, imag;
+        private final int h, from, to;
+
+        public Stage(double[] real, double[] imag, int h, int from, int to) {
+            this.real = real;
+            this.imag = imag;
+            this.h = h;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from <= PARALLEL_GRAIN) {
+                if (h == 0) {
+                    reverse(real, imag, from, to);
+                } else {
+                    butterflies(real, imag, h, from, to);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Stage(real, imag, h, from, mid), new Stage(real, imag, h, mid, to));
+            }
+        }
+
+    }
+
+    private void bluestein(double[] real, double[] imag, ForkJoinPool pool) {
+        final int n = length, m = conv.length;
+        final double[] a_real = conv.real, a_imag = conv.imag;
+        Arrays.fill(a_real, n, m, 0D);
+        Arrays.fill(a_imag, n, m, 0D);
+        for (int k = 0; k < n; k++) {
+            a_real[k] = real[k] * chirp_real[k] - imag[k] * chirp_imag[k];
+            a_imag[k] = real[k] * chirp_imag[k] + imag[k] * chirp_real[k];
+        }
+        conv.transform(a_real, a_imag, pool);
+        // multiply by the kernel, conjugated so a forward transform inverts it
+        for (int k = 0; k < m; k++) {
+            double r = a_real[k] * kern_real[k] - a_imag[k] * kern_imag[k];
+            double i = a_real[k] * kern_imag[k] + a_imag[k] * kern_real[k];
+            a_real[k] = r;
+            a_imag[k] = -i;
+        }
+        conv.transform(a_real, a_imag, pool);
+        for (int k = 0; k < n; k++) {
+            double r = a_real[k] / m, i = -a_imag[k] / m;
+            real[k] = r * chirp_real[k] - i * chirp_imag[k];
+            imag[k] = r * chirp_imag[k] + i * chirp_real[k];
+        }
+    }
+
+}
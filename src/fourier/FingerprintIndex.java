@@ -0,0 +1,588 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Inverted index of constellation hashes for matching clips against a
+ * library of recordings.
+ *
+ * Each clip is cut into STFT frames and the strongest peaks of every frame
+ * kept. Every peak is paired with the first few peaks more than one bin away
+ * from it in the frames shortly after it, and each pair is hashed from its two bins and
+ * their distance in frames. The index maps every hash to the clips and
+ * frames it occurs at. A query hashes its clip the same way and votes for
+ * each clip and frame offset its hashes occur at; the clip it was cut from
+ * collects many votes at the one offset it is aligned at, while chance
+ * collisions scatter.
+ *
+ * Added clips become searchable once committed as a segment, kept on the
+ * heap or written to a file and memory mapped. A segment is an open
+ * addressing table from hash to a run of postings, so a lookup reads one
+ * slot and its run however large the library, and opening a segment file
+ * costs the same regardless of its size. Segments are immutable, a library
+ * grows by adding segments.
+ *
+ * A segment is a 24 byte little-endian header (magic "FIDX", version,
+ * flags, clips, slots and postings) followed by the slots, each a hash, the
+ * index of its first posting and the number of postings, then the postings,
+ * each a clip in the segment and a frame packed in a long, and finally the
+ * UTF-8 clip names, each preceded by its length.
+ *
+ * Adding, committing and loading must not run concurrently with anything
+ * else, but any number of queries may run at once.
+ *
+ * @author benland100
+ */
+public class FingerprintIndex {
+
+    public final static int MAGIC = 0x58444946;
+    public final static short VERSION = 1;
+    public final static int HEADER = 24;
+    public final static String EXTENSION = ".fidx";
+
+    public final static int WINDOW = 1024;
+    public final static int HOP = 256;
+    /** Peaks kept per frame, strongest first */
+    public final static int PEAKS = 5;
+    /** Amplitude relative to its frame a peak must reach */
+    public final static double THRESHOLD = 0.1;
+    /** Peaks each anchor peak is paired with */
+    public final static int FAN_OUT = 5;
+    /** Frames after the anchor its targets are taken from, more than one bin away from it */
+    public final static int MIN_DT = 2, MAX_DT = 63;
+    /** Frames within which a repeated hash is dropped */
+    public final static int REPEAT = 2;
+    /** Votes a clip needs at one offset to be reported */
+    public final static int MIN_VOTES = 5;
+    /** Hashes with more postings in a segment carry little information and are skipped by queries */
+    public final static int MAX_RUN = 1 << 16;
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    private final static DecimalFormat twodec = new DecimalFormat("#0.00");
+
+    public static class Match {
+
+        public final int clip;
+        public final String name;
+        public final int votes;
+        /** Seconds into the clip the query starts at */
+        public final double offset;
+
+        public Match(int clip, String name, int votes, double offset) {
+            this.clip = clip;
+            this.name = name;
+            this.votes = votes;
+            this.offset = offset;
+        }
+
+        public String toString() {
+            return name + "\t" + votes + "\t" + twodec.format(offset);
+        }
+    }
+
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final List<String> pending_names = new ArrayList<String>();
+    private int[] pending_hashes = new int[1024];
+    private long[] pending_postings = new long[1024];
+    private int pending;
+    private int clips;
+
+    /**
+     * Number of searchable clips, which are numbered from 0 in the order they
+     * were committed or loaded.
+     */
+    public int clips() {
+        return clips;
+    }
+
+    public String name(int clip) {
+        for (Segment segment : segments) {
+            if (clip >= segment.base && clip < segment.base + segment.clips) {
+                return segment.names[clip - segment.base];
+            }
+        }
+        throw new IndexOutOfBoundsException("Clip " + clip + " of " + clips);
+    }
+
+    /**
+     * Opens every segment file in dir, in name order.
+     */
+    public static FingerprintIndex open(File dir) throws IOException {
+        FingerprintIndex index = new FingerprintIndex();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.getName().endsWith(EXTENSION)) {
+                    index.load(file);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Memory maps a segment file and appends its clips to the index.
+     */
+    public void load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            append(new Segment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), clips));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void append(Segment segment) {
+        segments.add(segment);
+        clips += segment.clips;
+    }
+
+    /**
+     * Hashes a clip into the pending segment and returns the number it will
+     * have once committed.
+     */
+    public int add(String name, int[] samples) {
+        long[] hashes = hashes(samples);
+        long local = pending_names.size();
+        if (pending + hashes.length > pending_hashes.length) {
+            int capacity = Math.max(pending + hashes.length, pending_hashes.length * 2);
+            pending_hashes = Arrays.copyOf(pending_hashes, capacity);
+            pending_postings = Arrays.copyOf(pending_postings, capacity);
+        }
+        for (long hash : hashes) {
+            pending_hashes[pending] = (int) (hash >>> 32);
+            pending_postings[pending++] = local << 32 | (hash & 0xFFFFFFFFL);
+        }
+        pending_names.add(name);
+        return clips + (int) local;
+    }
+
+    /**
+     * Makes the pending clips searchable as a segment kept on the heap.
+     */
+    public void commit() {
+        if (!pending_names.isEmpty()) {
+            try {
+                append(new Segment(encode(), clips));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the pending clips as a segment file and makes them searchable
+     * from its mapping.
+     */
+    public void commit(File file) throws IOException {
+        if (!pending_names.isEmpty()) {
+            IOUtils.write(encode(), file);
+            load(file);
+        }
+    }
+
+    private ByteBuffer encode() {
+        // postings ordered by hash, keeping their order within a hash
+        long[] order = new long[pending];
+        for (int i = 0; i < pending; i++) {
+            order[i] = (long) pending_hashes[i] << 32 | i;
+        }
+        Arrays.sort(order);
+        int keys = 0;
+        for (int i = 0; i < pending; i++) {
+            if (i == 0 || order[i] >>> 32 != order[i - 1] >>> 32) {
+                keys++;
+            }
+        }
+        int slots = 2;
+        while (slots < 2L * keys) {
+            slots <<= 1;
+        }
+        byte[][] names = new byte[pending_names.size()][];
+        long size = HEADER + 12L * slots + 8L * pending;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = pending_names.get(i).getBytes(UTF8);
+            size += 4 + names[i].length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Segment of " + pending + " postings is too large, commit more often");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) 0);
+        buffer.putInt(names.length);
+        buffer.putInt(slots);
+        buffer.putInt(pending);
+        buffer.putInt(0);
+        final int postings = HEADER + 12 * slots;
+        for (int i = 0, run = 0; i <= pending; i++) {
+            if (i > run && (i == pending || order[i] >>> 32 != order[run] >>> 32)) {
+                int hash = (int) (order[run] >>> 32);
+                int slot = mix(hash) & (slots - 1);
+                while (buffer.getInt(HEADER + 12 * slot + 8) != 0) {
+                    slot = (slot + 1) & (slots - 1);
+                }
+                buffer.putInt(HEADER + 12 * slot, hash);
+                buffer.putInt(HEADER + 12 * slot + 4, run);
+                buffer.putInt(HEADER + 12 * slot + 8, i - run);
+                run = i;
+            }
+            if (i < pending) {
+                buffer.putLong(postings + 8 * i, pending_postings[(int) order[i]]);
+            }
+        }
+        buffer.position(postings + 8 * pending);
+        for (byte[] name : names) {
+            buffer.putInt(name.length);
+            buffer.put(name);
+        }
+        buffer.flip();
+        pending_names.clear();
+        pending = 0;
+        return buffer;
+    }
+
+    /**
+     * Clips best matching samples, most votes first, at most max of them.
+     */
+    public List<Match> query(int[] samples, int max) {
+        long[] hashes = hashes(samples);
+        Votes votes = new Votes(hashes.length);
+        for (long packed : hashes) {
+            int hash = (int) (packed >>> 32), frame = (int) packed;
+            for (Segment segment : segments) {
+                int slot = segment.find(hash);
+                if (slot < 0) {
+                    continue;
+                }
+                int run = segment.buffer.getInt(slot + 8);
+                if (run > MAX_RUN) {
+                    continue;
+                }
+                int pos = segment.postings + 8 * segment.buffer.getInt(slot + 4);
+                for (int end = pos + 8 * run; pos < end; pos += 8) {
+                    long posting = segment.buffer.getLong(pos);
+                    long clip = segment.base + (posting >>> 32);
+                    votes.add(clip << 32 | (((int) posting - frame) & 0xFFFFFFFFL));
+                }
+            }
+        }
+        return votes.best(max);
+    }
+
+    /**
+     * Constellation hashes of a clip, each packed with the frame of its
+     * anchor peak as hash << 32 | frame, in ascending order. Of a hash
+     * repeating within REPEAT frames only the first occurrence is kept.
+     */
+    public static long[] hashes(int[] samples) {
+        final int frames = samples.length < WINDOW ? 0 : (samples.length - WINDOW) / HOP + 1;
+        final int[] peaks = new int[frames * PEAKS];
+        Arrays.fill(peaks, -1);
+        STFT stft = new STFT(WINDOW, HOP, STFT.Window.HANN, CaptureFrame.FREQ_MIN, CaptureFrame.FREQ_MAX);
+        stft.addListener(new STFT.Listener() {
+            public void frame(STFT stft, long start, SoundPrint print) {
+                int base = (int) (start / HOP) * PEAKS;
+                for (int i = 0, count = Math.min(PEAKS, print.peakCount(THRESHOLD)); i < count; i++) {
+                    peaks[base + i] = stft.low + print.peak(i);
+                }
+            }
+        });
+        stft.feed(samples, 0, samples.length);
+        long[] result = new long[frames * PEAKS * FAN_OUT];
+        int count = 0;
+        for (int t = 0; t < frames; t++) {
+            for (int a = t * PEAKS; a < (t + 1) * PEAKS && peaks[a] >= 0; a++) {
+                int paired = 0;
+                for (int dt = MIN_DT; dt <= MAX_DT && t + dt < frames && paired < FAN_OUT; dt++) {
+                    for (int b = (t + dt) * PEAKS; b < (t + dt + 1) * PEAKS && peaks[b] >= 0 && paired < FAN_OUT; b++) {
+                        if (Math.abs(peaks[b] - peaks[a]) > 1) {
+                            result[count++] = (long) hash(peaks[a], peaks[b], dt) << 32 | t;
+                            paired++;
+                        }
+                    }
+                }
+            }
+        }
+        // a pair of steady partials repeats its hash every frame; only the first is kept
+        Arrays.sort(result, 0, count);
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || result[i] >>> 32 != result[i - 1] >>> 32 || (int) result[i] - (int) result[i - 1] > REPEAT) {
+                result[kept++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, kept);
+    }
+
+    /**
+     * Packs two bins below 1024 and their distance in frames.
+     */
+    private static int hash(int anchor, int target, int dt) {
+        return (anchor & 0x3FF) << 16 | (target & 0x3FF) << 6 | dt;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    private static int mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return (int) (h ^ (h >>> 33));
+    }
+
+    private static class Segment {
+
+        final ByteBuffer buffer;
+        final int base, clips, mask, postings;
+        final String[] names;
+
+        Segment(ByteBuffer buffer, int base) throws IOException {
+            this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+            this.base = base;
+            if (this.buffer.remaining() < HEADER || this.buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a fingerprint index segment");
+            }
+            if (this.buffer.getShort(4) > VERSION) {
+                throw new IOException("Unsupported fingerprint index version " + this.buffer.getShort(4));
+            }
+            clips = this.buffer.getInt(8);
+            int slots = this.buffer.getInt(12);
+            int count = this.buffer.getInt(16);
+            if (clips < 0 || count < 0 || slots < 1 || Integer.bitCount(slots) != 1 || this.buffer.remaining() < HEADER + 12L * slots + 8L * count) {
+                throw new IOException("Truncated fingerprint index segment");
+            }
+            mask = slots - 1;
+            postings = HEADER + 12 * slots;
+            names = new String[clips];
+            int pos = postings + 8 * count;
+            for (int i = 0; i < clips; i++) {
+                int length = pos + 4 <= this.buffer.limit() ? this.buffer.getInt(pos) : -1;
+                if (length < 0 || pos + 4L + length > this.buffer.limit()) {
+                    throw new IOException("Truncated fingerprint index segment");
+                }
+                byte[] name = new byte[length];
+                ByteBuffer view = this.buffer.duplicate();
+                view.position(pos + 4);
+                view.get(name);
+                names[i] = new String(name, UTF8);
+                pos += 4 + length;
+            }
+        }
+
+        /**
+         * Position of the slot holding hash, or -1 if it has no postings.
+         */
+        int find(int hash) {
+            for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+                int pos = HEADER + 12 * slot;
+                if (buffer.getInt(pos + 8) == 0) {
+                    return -1;
+                }
+                if (buffer.getInt(pos) == hash) {
+                    return pos;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Votes per clip and offset, packed as clip << 32 | offset, counted in an
+     * open addressing table.
+     */
+    private class Votes {
+
+        private long[] keys;
+        private int[] counts;
+        private int size;
+
+        Votes(int expected) {
+            int capacity = 16;
+            while (capacity < 2L * expected) {
+                capacity <<= 1;
+            }
+            keys = new long[capacity];
+            counts = new int[capacity];
+        }
+
+        void add(long key) {
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (counts[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (counts[slot]++ == 0) {
+                keys[slot] = key;
+                if (++size * 2 > keys.length) {
+                    grow();
+                }
+            }
+        }
+
+        private void grow() {
+            long[] old_keys = keys;
+            int[] old_counts = counts;
+            keys = new long[old_keys.length * 2];
+            counts = new int[old_keys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < old_keys.length; i++) {
+                if (old_counts[i] != 0) {
+                    int slot = mix(old_keys[i]) & mask;
+                    while (counts[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = old_keys[i];
+                    counts[slot] = old_counts[i];
+                }
+            }
+        }
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = mix(key) & mask; counts[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return counts[slot];
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * The best offset of each clip with at least MIN_VOTES there, most
+         * votes first. Frames of the query and the clip may be a frame apart,
+         * so each offset also counts the votes of the better of its
+         * neighbours.
+         */
+        List<Match> best(int max) {
+            long[] ranked = new long[size];
+            int count = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (counts[i] != 0) {
+                    long clip = keys[i] & 0xFFFFFFFF00000000L;
+                    int offset = (int) keys[i];
+                    int votes = counts[i] + Math.max(get(clip | ((offset - 1) & 0xFFFFFFFFL)), get(clip | ((offset + 1) & 0xFFFFFFFFL)));
+                    if (votes >= MIN_VOTES) {
+                        ranked[count++] = (long) votes << 32 | i;
+                    }
+                }
+            }
+            Arrays.sort(ranked, 0, count);
+            List<Match> result = new ArrayList<Match>();
+            HashSet<Integer> seen = new HashSet<Integer>();
+            for (int i = count - 1; i >= 0 && result.size() < max; i--) {
+                long key = keys[(int) ranked[i]];
+                int clip = (int) (key >>> 32);
+                if (seen.add(clip)) {
+                    result.add(new Match(clip, name(clip), (int) (ranked[i] >>> 32), (double) (int) key * HOP / SoundUtils.SAMPLE_RATE));
+                }
+            }
+            return result;
+        }
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3 || !(args[0].equals("add") || args[0].equals("query"))) {
+            usage();
+            return;
+        }
+        File dir = new File(args[1]);
+        List<File> inputs = new ArrayList<File>();
+        List<String> names = new ArrayList<String>();
+        for (int i = 2; i < args.length; i++) {
+            File input = new File(args[i]);
+            if (input.isDirectory()) {
+                BatchAnalyzer.collect(input, "", inputs, names);
+            } else {
+                inputs.add(input);
+                names.add(input.getName());
+            }
+        }
+        if (args[0].equals("add")) {
+            dir.mkdirs();
+            FingerprintIndex index = new FingerprintIndex();
+            int added = 0;
+            for (int i = 0; i < inputs.size(); i++) {
+                try {
+                    index.add(names.get(i), SoundUtils.read(inputs.get(i)));
+                    added++;
+                } catch (Exception e) {
+                    System.err.println("Failed " + inputs.get(i) + ": " + e);
+                }
+            }
+            if (added == 0) {
+                System.out.println("No clips indexed");
+                return;
+            }
+            File segment;
+            for (int n = 0; (segment = new File(dir, String.format("segment%05d", n) + EXTENSION)).exists(); n++) {
+            }
+            index.commit(segment);
+            System.out.println("Indexed " + added + " clips into " + segment);
+        } else {
+            FingerprintIndex index = open(dir);
+            for (int i = 0; i < inputs.size(); i++) {
+                int[] samples;
+                try {
+                    samples = SoundUtils.read(inputs.get(i));
+                } catch (Exception e) {
+                    System.err.println("Failed " + inputs.get(i) + ": " + e);
+                    continue;
+                }
+                long start = System.nanoTime();
+                List<Match> matches = index.query(samples, 5);
+                System.out.println(names.get(i) + " (" + twodec.format((System.nanoTime() - start) / 1e6) + " ms of " + index.clips() + " clips)");
+                for (Match match : matches) {
+                    System.out.println("\t" + match);
+                }
+            }
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: FingerprintIndex add <index dir> <file or dir>...");
+        System.err.println("       FingerprintIndex query <index dir> <file or dir>...");
+    }
+
+}
@@ -23,11 +23,14 @@ import java.awt.BorderLayout;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JRadioButton;
 import javax.swing.JSlider;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
@@ -43,8 +46,12 @@ public class FourierFrame extends JFrame implements ActionListener,ChangeListene
     private SoundView sview;
     private FourierView fview;
     private final SoundPrint print;
+    private final ResynthCache resynth;
     private final double[] freqs, amps, phases;
     private int[] samples;
+    private boolean updating, stale;
+    private double requested_level;
+    private boolean requested_peaks, requested_adjusting;
 
     public FourierFrame(SoundPrint print) {
         super("Fourier View");
@@ -52,7 +59,8 @@ public class FourierFrame extends JFrame implements ActionListener,ChangeListene
         amps = print.amps;
         phases = print.phases;
         this.print = print;
-        samples = print.genSound(print.getPeaks(0.2), 1d);
+        resynth = new ResynthCache(print, 1d);
+        samples = resynth.peaks(0.2, 1);
         init();
     }
 
@@ -62,7 +70,8 @@ public class FourierFrame extends JFrame implements ActionListener,ChangeListene
         this.amps = amps;
         this.phases = phases;
         print = new SoundPrint(freqs,amps,phases);
-        samples = print.genSound(print.getPeaks(0.2), 1d);
+        resynth = new ResynthCache(print, 1d);
+        samples = resynth.peaks(0.2, 1);
         init();
     }
 
@@ -98,6 +107,12 @@ public class FourierFrame extends JFrame implements ActionListener,ChangeListene
         threshold.addChangeListener(this);
         add(threshold,BorderLayout.EAST);
 
+        addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent e) {
+                SoundUtils.closeLines();
+            }
+        });
+
         setSize(600,600);
     }
 
@@ -118,22 +133,65 @@ public class FourierFrame extends JFrame implements ActionListener,ChangeListene
         System.out.println("==============================================================");
     }
 
+    /**
+     * Resynthesizes the components above the threshold on a worker thread.
+     * Requests made while it runs are coalesced into one more pass for the
+     * latest one, so at most one worker runs and the event thread never
+     * waits on synthesis. While the slider is dragged, positions that would
+     * need a full rebuild are skipped; releasing the slider renders the final
+     * position either way.
+     */
     private void update() {
-        setEnabled(false);
+        synchronized (this) {
+            requested_level = threshold.getValue()/1000D;
+            requested_peaks = peak.isSelected();
+            requested_adjusting = threshold.getValueIsAdjusting();
+            if (updating) {
+                stale = true;
+                return;
+            }
+            updating = true;
+        }
         Thread t = new Thread() {
             public void run() {
-                if (peak.isSelected()) {
-                    samples = print.genSound(print.getPeaks(threshold.getValue()/1000D), 1d);
-                } else {
-                    samples = print.genSound(print.threshold(threshold.getValue()/1000D), 1d);
-                }
-                sview.setSamples(samples);
-                setEnabled(true);
+                do {
+                    double level;
+                    boolean peaks, adjusting;
+                    synchronized (FourierFrame.this) {
+                        level = requested_level;
+                        peaks = requested_peaks;
+                        adjusting = requested_adjusting;
+                    }
+                    if (adjusting && !resynth.isIncremental(peaks, level)) {
+                        continue;
+                    }
+                    final int[] result;
+                    if (peaks) {
+                        result = resynth.peaks(level, Runtime.getRuntime().availableProcessors());
+                    } else {
+                        result = resynth.threshold(level, Runtime.getRuntime().availableProcessors());
+                    }
+                    samples = result;
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            sview.setSamples(result);
+                        }
+                    });
+                } while (again());
             }
         };
         t.start();
     }
 
+    private synchronized boolean again() {
+        if (stale) {
+            stale = false;
+            return true;
+        }
+        updating = false;
+        return false;
+    }
+
     public void actionPerformed(ActionEvent e) {
         Object o = e.getSource();
         if (o == peak) {
@@ -152,7 +210,6 @@ public class FourierFrame extends JFrame implements ActionListener,ChangeListene
     }
 
     public void stateChanged(ChangeEvent e) {
-        if (threshold.getValueIsAdjusting()) return;
         update();
     }
 
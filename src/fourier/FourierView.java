@@ -22,6 +22,7 @@ package fourier;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -34,6 +35,7 @@ import java.text.DecimalFormat;
 import javax.swing.JButton;
 import javax.swing.JPanel;
 import javax.swing.JScrollBar;
+import javax.swing.Timer;
 
 /**
  *
@@ -41,9 +43,11 @@ import javax.swing.JScrollBar;
  */
 public class FourierView extends JPanel implements AdjustmentListener, ActionListener {
 
+    private final static DecimalFormat onedec = new DecimalFormat("#0.0");
+    private final static DecimalFormat fourdec = new DecimalFormat("#0.0000");
+
     public void adjustmentValueChanged(AdjustmentEvent e) {
         scroll.setVisibleAmount((int)(view.getWidth()/scale+0.5));
-        view.recalc();
         view.repaint();
     }
 
@@ -54,71 +58,98 @@ public class FourierView extends JPanel implements AdjustmentListener, ActionLis
             scale = Math.pow(2,Math.log(scale)/Math.log(2)-0.5);
         }
         scroll.setVisibleAmount((int)Math.ceil(getWidth()/scale));
-        view.recalc();
+        view.refresh();
         repaint();
     }
 
 
-    private class FreqView extends JPanel implements MouseMotionListener, MouseListener {
+    private class FreqView extends JPanel implements MouseMotionListener, MouseListener, TileCache.Renderer {
 
-        private int[] dots;
+        private final TileCache tiles = new TileCache(this, 64);
         private int idx;
 
         public FreqView() {
             super();
-            recalc();
             addMouseMotionListener(this);
             addMouseListener(this);
         }
 
-        public void recalc() {
-            int w = getWidth(), h = getHeight();
-            int start = scroll.getValue();
-            int last = Math.min((int)(start + w/scale + 1.5), freqs.length);
-            dots = new int[(last - start)*2];
-            for (int i = 0; i < dots.length; i+=2) {
-                dots[i+0] = (int)(i/2*scale + 0.5);
-                dots[i+1] =  h - (int)((h-30)*amps[start+i/2]);
-            }
+        /**
+         * Discards the rendered bars after the data or scale changed.
+         */
+        public void refresh() {
+            tiles.invalidate();
+            repaint();
+        }
+
+        private int origin() {
+            return xFromIdx(scroll.getValue());
+        }
+
+        private int xFromIdx(int i) {
+            return (int)Math.floor(i*scale + 0.5);
+        }
+
+        private int rectWidth() {
+            return Math.max((int)Math.ceil(scale),1);
         }
 
-        public void doLayout() {
-            recalc();
+        public void renderTile(Graphics2D g, int x, int width, int h) {
+            int rect_w = rectWidth();
+            int first = Math.max(0, (int)Math.floor((x - rect_w)/scale));
+            int last = Math.min(amps.length - 1, (int)Math.ceil((x + width)/scale));
+            g.setColor(Color.GREEN);
+            for (int i = first; i <= last; i++) {
+                g.fillRect(xFromIdx(i) - x, h - (int)((h-30)*amps[i]), rect_w, h);
+            }
         }
 
         public void paint(Graphics g) {
             int w = getWidth(), h = getHeight();
             g.setColor(Color.BLACK);
             g.fillRect(0,0,w,h);
-            g.setColor(Color.GREEN);
-            int rect_w = Math.max((int)Math.ceil(scale),1);
-            for (int i = 0; i < dots.length; i+=2) {
-                g.fillRect(dots[i+0], dots[i+1], rect_w,h);
-            }
-            try {
-                int i = (idx-scroll.getValue())*2;
+            int origin = origin();
+            tiles.paint(g, origin, w, h);
+            if (idx >= 0 && idx < freqs.length) {
+                int rect_w = rectWidth();
+                int x = xFromIdx(idx) - origin;
                 g.setColor(Color.GRAY);
-                g.fillRect(dots[i+0], 0, rect_w,h);
+                g.fillRect(x, 0, rect_w,h);
                 g.setColor(Color.RED);
-                g.fillRect(dots[i+0], dots[i+1], rect_w,h);
+                g.fillRect(x, h - (int)((h-30)*amps[idx]), rect_w,h);
                 g.setColor(Color.MAGENTA);
-                DecimalFormat onedec = new DecimalFormat("#0.0");
-                DecimalFormat fourdec = new DecimalFormat("#0.0000");
                 g.drawString("Freq: " + onedec.format(freqs[idx]) + " Amplitude: " + onedec.format(amps[idx]*100) + " Phase: " + fourdec.format(phases[idx]), 5, 15);
-            } catch (Exception e) {}
+            }
         }
 
         private int idxFromX(int x) {
-            return (int)(scroll.getValue() + x / scale + 0.5);
+            return (int)((x + origin()) / scale + 0.5);
+        }
+
+        /**
+         * Repaints only the columns and text the cursor covers at idx.
+         */
+        private void repaintCursor(int idx) {
+            if (idx >= 0) {
+                repaint(xFromIdx(idx) - origin() - 1, 0, rectWidth() + 2, getHeight());
+            }
+            repaint(0, 0, getWidth(), 20);
+        }
+
+        private void moveCursor(int idx) {
+            if (idx != this.idx) {
+                repaintCursor(this.idx);
+                this.idx = idx;
+                repaintCursor(idx);
+            }
         }
 
         public void mouseDragged(MouseEvent e) {
-            idx = Math.min(freqs.length-1, idxFromX(e.getX()));
+            moveCursor(Math.min(freqs.length-1, idxFromX(e.getX())));
         }
 
         public void mouseMoved(MouseEvent e) {
-            idx = Math.min(freqs.length-1, idxFromX(e.getX()));
-            repaint();
+            moveCursor(Math.min(freqs.length-1, idxFromX(e.getX())));
         }
 
         public void mouseClicked(MouseEvent e) {
@@ -134,8 +165,7 @@ public class FourierView extends JPanel implements AdjustmentListener, ActionLis
         }
 
         public void mouseExited(MouseEvent e) {
-            idx = -1;
-            repaint();
+            moveCursor(-1);
         }
 
     }
@@ -146,6 +176,13 @@ public class FourierView extends JPanel implements AdjustmentListener, ActionLis
     private FreqView view;
     private JButton in,out;
 
+    private Timer live;
+    private SampleRing.Cursor cursor;
+    private RealFFT plan;
+    private int[] latest;
+    private double[] coefficients;
+    private int low;
+
     public FourierView() {
         super(new BorderLayout());
         amps = new double[0];
@@ -176,8 +213,81 @@ public class FourierView extends JPanel implements AdjustmentListener, ActionLis
         scroll.setValue(0);
         scroll.setMaximum(freqs.length);
         scroll.setVisibleAmount((int)(view.getWidth()/scale+0.5));
-        view.recalc();
+        view.refresh();
         repaint();
     }
 
+    /**
+     * Continuously shows the spectrum of the newest window samples written to
+     * ring, fps times a second, between min_freq and max_freq. All buffers are
+     * allocated here, so frames themselves allocate nothing beyond the
+     * recycled tiles they redraw.
+     */
+    public void startLive(SampleRing ring, int window, STFT.Window function, double min_freq, double max_freq, int fps) {
+        stopLive();
+        low = Math.max(0, (int)(window/SoundUtils.SAMPLE_RATE*min_freq));
+        int high = Math.min(window/2, (int)(window/SoundUtils.SAMPLE_RATE*max_freq));
+        int len = Math.max(0, high - low + 1);
+        double[] freqs = new double[len];
+        for (int c = 0; c < len; c++) {
+            freqs[c] = (double)(low+c)/window*SoundUtils.SAMPLE_RATE;
+        }
+        setFourierData(freqs, new double[len], new double[len]);
+        latest = new int[window];
+        coefficients = function.coefficients(window);
+        plan = new RealFFT(window);
+        cursor = ring.cursor();
+        live = new Timer(Math.max(1, 1000 / fps), new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                frame();
+            }
+        });
+        live.start();
+    }
+
+    public void stopLive() {
+        if (live != null) {
+            live.stop();
+            live = null;
+            cursor = null;
+            plan = null;
+        }
+    }
+
+    public boolean isLive() {
+        return live != null;
+    }
+
+    private void frame() {
+        final int n = latest.length;
+        cursor.latest(n);
+        if (cursor.available() < n) {
+            return;
+        }
+        int count = 0;
+        while (count < n) {
+            int read = cursor.read(latest, count, n - count);
+            if (read == 0) {
+                return;
+            }
+            count += read;
+        }
+        plan.load(latest, 0, coefficients);
+        final double[] real = plan.real, imag = plan.imag;
+        plan.transform();
+        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+        for (int c = 0; c < amps.length; c++) {
+            double re = real[low+c], im = imag[low+c];
+            phases[c] = Math.atan2(im, re);
+            amps[c] = Math.sqrt(re*re+im*im);
+            if (amps[c] > max) max = amps[c];
+            if (amps[c] < min) min = amps[c];
+        }
+        double range = max-min;
+        for (int c = 0; c < amps.length; c++) {
+            amps[c] = range > 0 ? (amps[c]-min)/range : 0D;
+        }
+        view.refresh();
+    }
+
 }
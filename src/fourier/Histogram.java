@@ -0,0 +1,108 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds with one bucket per power
+ * of two, so recording costs a few atomic adds and quantiles are accurate to
+ * within a factor of two.
+ *
+ * @author benland100
+ */
+public class Histogram {
+
+    public final static int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Bucket b counts durations in [2^(b-1), 2^b), bucket 0 those of zero.
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0L, nanos);
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        long seen;
+        while (nanos > (seen = max.get()) && !max.compareAndSet(seen, nanos)) {
+        }
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long total() {
+        return total.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = count.get();
+        return n == 0 ? 0D : (double) total.get() / n;
+    }
+
+    /**
+     * Upper bound of the bucket holding the q-th quantile, in nanoseconds,
+     * but no more than the largest duration recorded.
+     */
+    public long quantile(double q) {
+        long[] counts = buckets();
+        long n = 0;
+        for (long c : counts) {
+            n += c;
+        }
+        long rank = (long) Math.ceil(q * n), seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= rank && seen > 0) {
+                return b == 0 ? 0L : Math.min(max.get(), b == BUCKETS - 1 ? Long.MAX_VALUE : (1L << b) - 1);
+            }
+        }
+        return 0L;
+    }
+
+    public long[] buckets() {
+        long[] result = new long[BUCKETS];
+        for (int b = 0; b < BUCKETS; b++) {
+            result[b] = buckets.get(b);
+        }
+        return result;
+    }
+
+    public void reset() {
+        for (int b = 0; b < BUCKETS; b++) {
+            buckets.set(b, 0L);
+        }
+        count.set(0L);
+        total.set(0L);
+        max.set(0L);
+    }
+
+}
@@ -0,0 +1,179 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The innermost loops of the transforms, synthesis and sample conversion.
+ * This class holds the scalar versions. When the JVM was started with
+ * --add-modules jdk.incubator.vector and the optional VectorKernels class was
+ * built, get returns a subclass using SIMD instructions instead, after
+ * checking it agrees with the scalar kernels. Setting the system property
+ * fourier.kernels to scalar forces the scalar versions.
+ *
+ * Every kernel performs the same floating point operations per element in
+ * both versions, so FFT results are bit-identical whichever is selected.
+ *
+ * @author benland100
+ */
+class Kernels {
+
+    private final static Kernels kernels = select();
+
+    static Kernels get() {
+        return kernels;
+    }
+
+    private static Kernels select() {
+        Kernels scalar = new Kernels();
+        if ("scalar".equals(System.getProperty("fourier.kernels"))) {
+            return scalar;
+        }
+        try {
+            Kernels vector = (Kernels) Class.forName("fourier.VectorKernels").getDeclaredConstructor().newInstance();
+            return vector.agrees(scalar) ? vector : scalar;
+        } catch (Throwable e) {
+            // not built, or the incubator module is not enabled
+            return scalar;
+        }
+    }
+
+    /**
+     * Name of the selected implementation, for diagnostics.
+     */
+    String name() {
+        return "scalar";
+    }
+
+    /**
+     * Runs this and the scalar kernels over the same small inputs, split at
+     * awkward boundaries, comparing FFT stages and conversions exactly and
+     * synthesis to within one sample value.
+     */
+    private boolean agrees(Kernels scalar) {
+        final int n = 256;
+        Random random = new Random(n);
+        double[] tw_real = new double[n], tw_imag = new double[n];
+        double[][] real = new double[2][n], imag = new double[2][n];
+        for (int h = 1; h < n; h <<= 1) {
+            for (int j = 0; j < h; j++) {
+                tw_real[h + j] = Math.cos(-Math.PI * j / h);
+                tw_imag[h + j] = Math.sin(-Math.PI * j / h);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            real[0][i] = real[1][i] = random.nextGaussian();
+            imag[0][i] = imag[1][i] = random.nextGaussian();
+        }
+        for (int h = 1; h < n; h <<= 1) {
+            scalar.butterflies(real[0], imag[0], tw_real, tw_imag, h, 0, n / 2);
+            butterflies(real[1], imag[1], tw_real, tw_imag, h, 0, 3);
+            butterflies(real[1], imag[1], tw_real, tw_imag, h, 3, n / 2 - 5);
+            butterflies(real[1], imag[1], tw_real, tw_imag, h, n / 2 - 5, n / 2);
+        }
+        int[][] synth = new int[2][OscillatorBank.RESYNC + 37];
+        scalar.oscillator(synth[0], 5, synth[0].length, 0.0123, 0.5, 1e9);
+        oscillator(synth[1], 5, synth[1].length, 0.0123, 0.5, 1e9);
+        for (int i = 0; i < synth[0].length; i++) {
+            if (Math.abs(synth[0][i] - synth[1][i]) > 1) {
+                return false;
+            }
+        }
+        int[] samples = new int[n];
+        int[][] ints = new int[2][n + 1];
+        byte[][] bytes = new byte[2][4 * n + 3];
+        for (int i = 0; i < n; i++) {
+            samples[i] = random.nextInt();
+        }
+        scalar.encode(samples, 0, bytes[0], 3, n);
+        encode(samples, 0, bytes[1], 3, n);
+        scalar.decode(bytes[0], 3, ints[0], 1, n);
+        decode(bytes[0], 3, ints[1], 1, n);
+        return Arrays.equals(real[0], real[1]) && Arrays.equals(imag[0], imag[1])
+                && Arrays.equals(bytes[0], bytes[1]) && Arrays.equals(ints[0], ints[1]);
+    }
+
+    /**
+     * Performs butterflies [from, to) of the radix-2 stage with half size h,
+     * with the stage's twiddles at [h, 2h) of tw_real/tw_imag.
+     */
+    void butterflies(double[] real, double[] imag, double[] tw_real, double[] tw_imag, int h, int from, int to) {
+        final int mask = h - 1;
+        for (int k = from; k < to; k++) {
+            final int j = k & mask;
+            final int a = ((k - j) << 1) + j, b = a + h;
+            final double wr = tw_real[h + j], wi = tw_imag[h + j];
+            final double tr = real[b] * wr - imag[b] * wi;
+            final double ti = real[b] * wi + imag[b] * wr;
+            real[b] = real[a] - tr;
+            imag[b] = imag[a] - ti;
+            real[a] += tr;
+            imag[a] += ti;
+        }
+    }
+
+    /**
+     * Adds scale*sin(step*i + phase) into samples [from, to), advancing the
+     * oscillator by rotation and resynchronizing it every
+     * OscillatorBank.RESYNC samples.
+     */
+    void oscillator(int[] samples, int from, int to, double step, double phase, double scale) {
+        final double cw = Math.cos(step), sw = Math.sin(step);
+        double c, s, t;
+        for (int start = from, end; start < to; start = end) {
+            end = Math.min(to, (start / OscillatorBank.RESYNC + 1) * OscillatorBank.RESYNC);
+            c = Math.cos(step * start + phase);
+            s = Math.sin(step * start + phase);
+            for (int i = start; i < end; i++) {
+                samples[i] += scale * s;
+                t = c * cw - s * sw;
+                s = s * cw + c * sw;
+                c = t;
+            }
+        }
+    }
+
+    /**
+     * Converts count big-endian 32 bit samples in bytes at from to ints in
+     * samples at off.
+     */
+    void decode(byte[] bytes, int from, int[] samples, int off, int count) {
+        for (int i = from, end = off + count; off < end; i += 4) {
+            samples[off++] = ((bytes[i] & 0xFF) << 24) | ((bytes[i+1] & 0xFF) << 16) | ((bytes[i+2] & 0xFF) << 8) | (bytes[i+3] & 0xFF);
+        }
+    }
+
+    /**
+     * Converts count samples at off to big-endian 32 bit samples in bytes at
+     * to.
+     */
+    void encode(int[] samples, int off, byte[] bytes, int to, int count) {
+        for (int i = to, end = off + count; off < end; i += 4) {
+            int sample = samples[off++];
+            bytes[i+0] = (byte) ((sample >> 24) & 0xFF);
+            bytes[i+1] = (byte) ((sample >> 16) & 0xFF);
+            bytes[i+2] = (byte) ((sample >> 8) & 0xFF);
+            bytes[i+3] = (byte) ((sample >> 0) & 0xFF);
+        }
+    }
+
+}
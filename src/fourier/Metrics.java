@@ -0,0 +1,262 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
+
+/**
+ * Process wide counters, latency histograms and gauges for analysis,
+ * synthesis and audio I/O, exposed over JMX as fourier:type=Metrics. The
+ * record methods only touch a few atomics, so they stay on in hot paths.
+ *
+ * @author benland100
+ */
+public class Metrics implements MetricsMBean {
+
+    public final static String NAME = "fourier:type=Metrics";
+
+    private final static Histogram fourier_time = new Histogram();
+    private final static AtomicLong fourier_samples = new AtomicLong();
+    private final static Histogram synthesis_time = new Histogram();
+    private final static AtomicLong synthesis_samples = new AtomicLong();
+    private final static AtomicLong capture_reads = new AtomicLong();
+    private final static AtomicLong capture_samples = new AtomicLong();
+    private final static AtomicLong capture_overruns = new AtomicLong();
+    private static volatile int capture_fill;
+    private final static AtomicInteger capture_max_fill = new AtomicInteger();
+    private final static AtomicLong playback_writes = new AtomicLong();
+    private final static AtomicLong playback_samples = new AtomicLong();
+    private final static AtomicLong playback_underruns = new AtomicLong();
+    private static volatile int playback_fill;
+    private final static AtomicLong errors = new AtomicLong();
+    private static volatile String last_error = "";
+
+    private static boolean registered = false;
+
+    static {
+        register();
+    }
+
+    /**
+     * Registers the MBean with the platform MBean server, which otherwise
+     * happens the first time anything is recorded.
+     */
+    public static synchronized void register() {
+        if (registered) {
+            return;
+        }
+        registered = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(), new ObjectName(NAME));
+        } catch (Exception e) {
+            // already registered by another class loader, or JMX is unavailable
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Records a fourier transform of samples that took nanos.
+     */
+    public static void fourier(long nanos, int samples) {
+        fourier_time.record(nanos);
+        fourier_samples.addAndGet(samples);
+    }
+
+    /**
+     * Records samples synthesized in nanos.
+     */
+    public static void synthesis(long nanos, int samples) {
+        synthesis_time.record(nanos);
+        synthesis_samples.addAndGet(samples);
+    }
+
+    /**
+     * Records a read of samples from a capture line that had available of
+     * its buffer bytes waiting beforehand. A full buffer means the line has
+     * been dropping audio since the last read.
+     */
+    public static void capture(int available, int buffer, int samples) {
+        capture_reads.incrementAndGet();
+        capture_samples.addAndGet(samples);
+        int fill = percent(available, buffer);
+        capture_fill = fill;
+        for (int max = capture_max_fill.get(); fill > max && !capture_max_fill.compareAndSet(max, fill); ) {
+            max = capture_max_fill.get();
+        }
+        if (available >= buffer) {
+            capture_overruns.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a write of samples to a playback line that had available of
+     * its buffer bytes free beforehand. An empty buffer once playback is
+     * under way means the line ran dry.
+     */
+    public static void playback(int available, int buffer, int samples, boolean started) {
+        playback_writes.incrementAndGet();
+        playback_samples.addAndGet(samples);
+        playback_fill = 100 - percent(available, buffer);
+        if (started && available >= buffer) {
+            playback_underruns.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts an error that was handled by giving up on an operation.
+     */
+    public static void error(Throwable e) {
+        errors.incrementAndGet();
+        last_error = String.valueOf(e);
+    }
+
+    private static int percent(int part, int whole) {
+        return whole <= 0 ? 0 : (int) Math.min(100L, 100L * part / whole);
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1e3;
+    }
+
+    public long getFourierCount() {
+        return fourier_time.count();
+    }
+
+    public long getFourierSamples() {
+        return fourier_samples.get();
+    }
+
+    public double getFourierMeanMicros() {
+        return micros((long) fourier_time.mean());
+    }
+
+    public double getFourierP50Micros() {
+        return micros(fourier_time.quantile(0.5));
+    }
+
+    public double getFourierP99Micros() {
+        return micros(fourier_time.quantile(0.99));
+    }
+
+    public double getFourierMaxMicros() {
+        return micros(fourier_time.max());
+    }
+
+    public long[] getFourierHistogram() {
+        return fourier_time.buckets();
+    }
+
+    public long getSynthesisCount() {
+        return synthesis_time.count();
+    }
+
+    public long getSynthesisSamples() {
+        return synthesis_samples.get();
+    }
+
+    public double getSynthesisSamplesPerSecond() {
+        long nanos = synthesis_time.total();
+        return nanos == 0 ? 0D : synthesis_samples.get() * 1e9 / nanos;
+    }
+
+    public double getSynthesisMeanMicros() {
+        return micros((long) synthesis_time.mean());
+    }
+
+    public double getSynthesisP99Micros() {
+        return micros(synthesis_time.quantile(0.99));
+    }
+
+    public double getSynthesisMaxMicros() {
+        return micros(synthesis_time.max());
+    }
+
+    public long[] getSynthesisHistogram() {
+        return synthesis_time.buckets();
+    }
+
+    public long getCaptureReads() {
+        return capture_reads.get();
+    }
+
+    public long getCaptureSamples() {
+        return capture_samples.get();
+    }
+
+    public long getCaptureOverruns() {
+        return capture_overruns.get();
+    }
+
+    public int getCaptureFillPercent() {
+        return capture_fill;
+    }
+
+    public int getCaptureMaxFillPercent() {
+        return capture_max_fill.get();
+    }
+
+    public long getPlaybackWrites() {
+        return playback_writes.get();
+    }
+
+    public long getPlaybackSamples() {
+        return playback_samples.get();
+    }
+
+    public long getPlaybackUnderruns() {
+        return playback_underruns.get();
+    }
+
+    public int getPlaybackFillPercent() {
+        return playback_fill;
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public String getLastError() {
+        return last_error;
+    }
+
+    public void reset() {
+        fourier_time.reset();
+        fourier_samples.set(0L);
+        synthesis_time.reset();
+        synthesis_samples.set(0L);
+        capture_reads.set(0L);
+        capture_samples.set(0L);
+        capture_overruns.set(0L);
+        capture_fill = 0;
+        capture_max_fill.set(0);
+        playback_writes.set(0L);
+        playback_samples.set(0L);
+        playback_underruns.set(0L);
+        playback_fill = 0;
+        errors.set(0L);
+        last_error = "";
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+/**
+ * Management interface of Metrics. Times are in microseconds, fill levels in
+ * percent of the line's buffer.
+ *
+ * @author benland100
+ */
+public interface MetricsMBean {
+
+    public long getFourierCount();
+
+    public long getFourierSamples();
+
+    public double getFourierMeanMicros();
+
+    public double getFourierP50Micros();
+
+    public double getFourierP99Micros();
+
+    public double getFourierMaxMicros();
+
+    public long[] getFourierHistogram();
+
+    public long getSynthesisCount();
+
+    public long getSynthesisSamples();
+
+    public double getSynthesisSamplesPerSecond();
+
+    public double getSynthesisMeanMicros();
+
+    public double getSynthesisP99Micros();
+
+    public double getSynthesisMaxMicros();
+
+    public long[] getSynthesisHistogram();
+
+    public long getCaptureReads();
+
+    public long getCaptureSamples();
+
+    public long getCaptureOverruns();
+
+    public int getCaptureFillPercent();
+
+    public int getCaptureMaxFillPercent();
+
+    public long getPlaybackWrites();
+
+    public long getPlaybackSamples();
+
+    public long getPlaybackUnderruns();
+
+    public int getPlaybackFillPercent();
+
+    public long getErrors();
+
+    public String getLastError();
+
+    public void reset();
+
+}
@@ -0,0 +1,141 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.util.Collection;
+
+/**
+ * Additive synthesizer that renders partials through an inverse FFT with
+ * overlap-add, so the cost per output sample grows with the frame size rather
+ * than the number of partials.
+ *
+ * Output is cut into frames of FRAME samples every HOP samples. Each partial
+ * is placed into a frame's spectrum as the transform of a Hann windowed
+ * complex exponential, truncated to the 2*LOBE+1 bins around its frequency.
+ * Since that kernel depends only on where the partial falls between bins it
+ * is computed once per partial, and each frame merely rotates it to the phase
+ * at the frame start. Hann windows at half overlap sum to exactly one, so the
+ * only error is the truncated kernel, which leaves the output about 65dB
+ * above the difference from exact synthesis.
+ *
+ * @author benland100
+ */
+public class OverlapAddSynth implements Synthesizer {
+
+    public final static int FRAME = 1024;
+    public final static int HOP = FRAME / 2;
+    /** Bins on either side of a partial's nearest bin that are synthesized */
+    public final static int LOBE = 8;
+
+    public final int size;
+    private final double[] steps, phases;
+    private final int[] centers;
+    private final double[] kern_real, kern_imag;
+
+    /**
+     * Builds a synthesizer from fourier data with freqs in Hz at the given
+     * sample rate and output amplitude scaled by amplitude.
+     */
+    public OverlapAddSynth(Collection<SoundPrint.FourierData> data, float framerate, float amplitude) {
+        size = data.size();
+        steps = new double[size];
+        phases = new double[size];
+        centers = new int[size];
+        kern_real = new double[size * (2 * LOBE + 1)];
+        kern_imag = new double[size * (2 * LOBE + 1)];
+        int p = 0;
+        for (SoundPrint.FourierData fourier : data) {
+            steps[p] = fourier.freq * 2D * Math.PI / framerate;
+            // sin(x) is the real part of e^(i*(x - pi/2))
+            phases[p] = fourier.phase - Math.PI / 2D;
+            double bin = steps[p] * FRAME / (2D * Math.PI);
+            centers[p] = (int) Math.floor(bin + 0.5);
+            double scale = amplitude * fourier.amp / FRAME;
+            for (int j = -LOBE, k = p * (2 * LOBE + 1); j <= LOBE; j++, k++) {
+                double delta = centers[p] + j - bin;
+                // conjugated, so a forward FFT performs the inverse transform
+                kern_real[k] = scale * hannReal(delta);
+                kern_imag[k] = -scale * hannImag(delta);
+            }
+            p++;
+        }
+    }
+
+    /**
+     * Transform of the periodic FRAME point Hann window at an offset of delta
+     * bins, 0.5*D(delta) - 0.25*D(delta-1) - 0.25*D(delta+1) where D is the
+     * transform of a rectangular window.
+     */
+    private static double hannReal(double delta) {
+        return 0.5D * rectReal(delta) - 0.25D * rectReal(delta - 1D) - 0.25D * rectReal(delta + 1D);
+    }
+
+    private static double hannImag(double delta) {
+        return 0.5D * rectImag(delta) - 0.25D * rectImag(delta - 1D) - 0.25D * rectImag(delta + 1D);
+    }
+
+    private static double rectMagnitude(double delta) {
+        double den = Math.sin(Math.PI * delta / FRAME);
+        return Math.abs(den) < 1e-12 ? FRAME : Math.sin(Math.PI * delta) / den;
+    }
+
+    private static double rectReal(double delta) {
+        return rectMagnitude(delta) * Math.cos(-Math.PI * delta * (FRAME - 1) / FRAME);
+    }
+
+    private static double rectImag(double delta) {
+        return rectMagnitude(delta) * Math.sin(-Math.PI * delta * (FRAME - 1) / FRAME);
+    }
+
+    /**
+     * Adds every partial into samples [from, to), where sample i is at time
+     * i/framerate. Any partition of a range renders identical samples.
+     */
+    public void render(int[] samples, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        FFT plan = FFT.acquire(FRAME);
+        final double[] real = plan.real, imag = plan.imag;
+        final int mask = FRAME - 1;
+        for (int frame = from / HOP - 1, last = (to - 1) / HOP; frame <= last; frame++) {
+            final int start = frame * HOP;
+            for (int n = 0; n < FRAME; n++) {
+                real[n] = imag[n] = 0D;
+            }
+            for (int p = 0; p < size; p++) {
+                final double theta = steps[p] * start + phases[p];
+                final double c = Math.cos(theta), s = -Math.sin(theta);
+                for (int j = -LOBE, k = p * (2 * LOBE + 1); j <= LOBE; j++, k++) {
+                    final int bin = (centers[p] + j) & mask;
+                    real[bin] += kern_real[k] * c - kern_imag[k] * s;
+                    imag[bin] += kern_real[k] * s + kern_imag[k] * c;
+                }
+            }
+            plan.transform(real, imag);
+            final int lo = Math.max(from, start), hi = Math.min(to, start + FRAME);
+            for (int i = lo; i < hi; i++) {
+                samples[i] += real[i - start];
+            }
+        }
+        FFT.release(plan);
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Idle transform plans keyed by length, evicting the least recently used
+ * lengths once the plans held exceed a size limit.
+ *
+ * @author benland100
+ */
+class PlanCache<T extends PlanCache.Plan> {
+
+    interface Plan {
+
+        int length();
+
+        /** Number of table and buffer entries held by this plan */
+        long size();
+
+    }
+
+    private final LinkedHashMap<Integer,ArrayList<T>> plans = new LinkedHashMap<Integer,ArrayList<T>>(16, 0.75f, true);
+    private final long limit;
+    private long size = 0;
+
+    PlanCache(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Removes and returns an idle plan of the given length, or null if none.
+     */
+    synchronized T take(int length) {
+        ArrayList<T> idle = plans.get(length);
+        if (idle == null || idle.isEmpty()) {
+            return null;
+        }
+        T plan = idle.remove(idle.size() - 1);
+        size -= plan.size();
+        return plan;
+    }
+
+    /**
+     * Adds an idle plan, then evicts the least recently used lengths while
+     * over the limit.
+     */
+    synchronized void give(T plan) {
+        long plan_size = plan.size();
+        if (plan_size > limit) {
+            return;
+        }
+        ArrayList<T> idle = plans.get(plan.length());
+        if (idle == null) {
+            idle = new ArrayList<T>(1);
+            plans.put(plan.length(), idle);
+        }
+        idle.add(plan);
+        size += plan_size;
+        Iterator<Map.Entry<Integer,ArrayList<T>>> eldest = plans.entrySet().iterator();
+        while (size > limit && eldest.hasNext()) {
+            for (T evicted : eldest.next().getValue()) {
+                size -= evicted.size();
+            }
+            eldest.remove();
+        }
+    }
+
+}
@@ -0,0 +1,218 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Forward FFT of real samples. An even number of samples is packed into a
+ * complex transform of half the length, with even samples as the real part
+ * and odd samples as the imaginary part, and the non-negative bins are then
+ * untangled in place. Odd lengths fall back to a full complex transform.
+ *
+ * Load samples with one of the load methods, call transform, and read bins
+ * 0 to length/2 (inclusive) out of real and imag.
+ *
+ * @author benland100
+ */
+public class RealFFT implements PlanCache.Plan {
+
+    /** Upper bound on the number of table and buffer entries held by idle plans */
+    public final static long CACHE_LIMIT = 1L << 23;
+
+    private final static PlanCache<RealFFT> cache = new PlanCache<RealFFT>(CACHE_LIMIT);
+
+    public final int length;
+    /** Number of non-negative frequency bins, length/2+1 */
+    public final int bins;
+    /** Packed input before transform, bins 0 to length/2 after */
+    public final double[] real, imag;
+
+    private final FFT fft;
+    private final double[] tw_real, tw_imag;
+
+    public RealFFT(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("FFT length must not be negative");
+        }
+        this.length = length;
+        bins = length / 2 + 1;
+        if (length % 2 == 0) {
+            final int m = length / 2;
+            fft = new FFT(m);
+            real = new double[m + 1];
+            imag = new double[m + 1];
+            tw_real = new double[m + 1];
+            tw_imag = new double[m + 1];
+            for (int k = 0; k <= m; k++) {
+                tw_real[k] = Math.cos(-2D * Math.PI * k / length);
+                tw_imag[k] = Math.sin(-2D * Math.PI * k / length);
+            }
+        } else {
+            fft = new FFT(length);
+            real = new double[length];
+            imag = new double[length];
+            tw_real = tw_imag = null;
+        }
+    }
+
+    /**
+     * Borrows a plan for the given length, reusing a cached one if available.
+     * The plan should be handed back with release when no longer needed.
+     */
+    public static RealFFT acquire(int length) {
+        RealFFT plan = cache.take(length);
+        return plan == null ? new RealFFT(length) : plan;
+    }
+
+    public static void release(RealFFT plan) {
+        cache.give(plan);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public long size() {
+        return size(length);
+    }
+
+    /**
+     * Number of table and buffer entries a plan of the given length holds,
+     * without building it.
+     */
+    public static long size(int length) {
+        if (length % 2 == 0) {
+            return 4L * (length / 2 + 1) + FFT.size(length / 2);
+        }
+        return 2L * length + FFT.size(length);
+    }
+
+    /**
+     * Loads length samples starting at off.
+     */
+    public void load(int[] samples, int off) {
+        if (tw_real == null) {
+            for (int j = 0; j < length; j++) {
+                real[j] = samples[off + j];
+                imag[j] = 0D;
+            }
+        } else {
+            for (int j = 0, k = 0; j < length; j += 2, k++) {
+                real[k] = samples[off + j];
+                imag[k] = samples[off + j + 1];
+            }
+        }
+    }
+
+    /**
+     * Loads length samples starting at off, each multiplied by the matching
+     * window coefficient.
+     */
+    public void load(int[] samples, int off, double[] window) {
+        if (tw_real == null) {
+            for (int j = 0; j < length; j++) {
+                real[j] = samples[off + j] * window[j];
+                imag[j] = 0D;
+            }
+        } else {
+            for (int j = 0, k = 0; j < length; j += 2, k++) {
+                real[k] = samples[off + j] * window[j];
+                imag[k] = samples[off + j + 1] * window[j + 1];
+            }
+        }
+    }
+
+    /**
+     * Loads length samples starting at off, scaled to the PCM_32 range so
+     * every format transforms to the same spectrum.
+     */
+    public void load(Samples samples, int off) {
+        final double scale = samples.format.scale;
+        if (tw_real == null) {
+            for (int j = 0; j < length; j++) {
+                real[j] = samples.get(off + j) * scale;
+                imag[j] = 0D;
+            }
+        } else {
+            for (int j = 0, k = 0; j < length; j += 2, k++) {
+                real[k] = samples.get(off + j) * scale;
+                imag[k] = samples.get(off + j + 1) * scale;
+            }
+        }
+    }
+
+    /**
+     * Loads length samples starting at off.
+     */
+    public void load(double[] samples, int off) {
+        if (tw_real == null) {
+            System.arraycopy(samples, off, real, 0, length);
+            for (int j = 0; j < length; j++) {
+                imag[j] = 0D;
+            }
+        } else {
+            for (int j = 0, k = 0; j < length; j += 2, k++) {
+                real[k] = samples[off + j];
+                imag[k] = samples[off + j + 1];
+            }
+        }
+    }
+
+    public void transform() {
+        transform(null);
+    }
+
+    /**
+     * Transforms the loaded samples, splitting the work over pool if not null.
+     * Results are bit-identical with or without a pool.
+     */
+    public void transform(ForkJoinPool pool) {
+        fft.transform(real, imag, pool);
+        if (tw_real == null || length == 0) {
+            return;
+        }
+        final int m = length / 2;
+        double r = real[0], i = imag[0];
+        real[0] = r + i;
+        imag[0] = 0D;
+        real[m] = r - i;
+        imag[m] = 0D;
+        for (int k = 1, l = m - 1; k <= l; k++, l--) {
+            final double kr = real[k], ki = imag[k];
+            final double lr = real[l], li = imag[l];
+            // X[k] = (Z[k] + conj(Z[m-k]))/2 + W^k (Z[k] - conj(Z[m-k]))/2i
+            double er = (kr + lr) * 0.5, ei = (ki - li) * 0.5;
+            double or = (ki + li) * 0.5, oi = (lr - kr) * 0.5;
+            real[k] = er + tw_real[k] * or - tw_imag[k] * oi;
+            imag[k] = ei + tw_real[k] * oi + tw_imag[k] * or;
+            if (l != k) {
+                // the same with k and m-k swapped, where (Z[l], Z[k]) mirror the above
+                er = (lr + kr) * 0.5;
+                ei = (li - ki) * 0.5;
+                or = (li + ki) * 0.5;
+                oi = (kr - lr) * 0.5;
+                real[l] = er + tw_real[l] * or - tw_imag[l] * oi;
+                imag[l] = ei + tw_real[l] * oi + tw_imag[l] * or;
+            }
+        }
+    }
+
+}
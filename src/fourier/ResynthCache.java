@@ -0,0 +1,200 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.TreeSet;
+
+/**
+ * Sound of the components of a SoundPrint above a threshold, kept up to date
+ * as the threshold moves. Bins and peaks are ranked by amplitude, so a move
+ * adds or removes one run of the ranking. Each component in that run is
+ * rendered alone by the oscillator kernel and added to or subtracted from a
+ * long mix, which therefore never drifts.
+ *
+ * Where neither clips, samples differ from genSound by at most one LSB per
+ * component, plus about 65dB down of spectral error for components removed
+ * since the mix was last rebuilt.
+ *
+ * Both paths cost time in proportion to length, so they are compared in
+ * oscillator passes. Rendering the changed components costs one pass each.
+ * genSound costs one pass per component up to SPECTRAL_CROSSOVER and
+ * REBUILD_BASE plus one pass per REBUILD_RATIO components through overlap-add
+ * above it. The mix is rebuilt whenever that is cheaper, and after a rebuild
+ * that clipped until one no longer does.
+ *
+ * @author benland100
+ */
+public class ResynthCache {
+
+    private final static Kernels kernels = Kernels.get();
+    /** Measured cost of overlap-add synthesis, in oscillator passes */
+    private final static int REBUILD_BASE = 32;
+    private final static int REBUILD_RATIO = 16;
+
+    public final double seconds;
+    public final int length;
+    private final SoundPrint print;
+    private final long[] mix;
+    private final int[] scratch;
+    private final BitSet current;
+    /** The mix holds the strongest count peaks if peaks is set, bins otherwise */
+    private boolean peaks;
+    private int count;
+    /** Set while the mix was rebuilt from clipped samples, which cannot be updated */
+    private boolean clipped;
+
+    public ResynthCache(SoundPrint print, double seconds) {
+        this.print = print;
+        this.seconds = seconds;
+        length = (int) (0.5 + seconds * SoundUtils.SAMPLE_RATE);
+        mix = new long[length];
+        scratch = new int[length];
+        current = new BitSet(print.length);
+    }
+
+    /**
+     * Sound of the bins with amplitude at least threshold, as genSound would
+     * render print.threshold(threshold).
+     */
+    public synchronized int[] threshold(double threshold, int parallelism) {
+        return update(false, print.thresholdCount(threshold), parallelism);
+    }
+
+    /**
+     * Sound of the peaks with amplitude at least threshold, as genSound would
+     * render print.getPeaks(threshold).
+     */
+    public synchronized int[] peaks(double threshold, int parallelism) {
+        return update(true, print.peakCount(threshold), parallelism);
+    }
+
+    /**
+     * Whether moving to the peaks, or bins, with amplitude at least threshold
+     * renders only the components that change instead of rebuilding the mix.
+     */
+    public synchronized boolean isIncremental(boolean peaks, double threshold) {
+        int count = peaks ? print.peakCount(threshold) : print.thresholdCount(threshold);
+        return !rebuilds(peaks, count);
+    }
+
+    private int bin(boolean peaks, int i) {
+        return peaks ? print.peak(i) : print.ranked(i);
+    }
+
+    private BitSet target(boolean peaks, int count) {
+        BitSet target = new BitSet(print.length);
+        for (int i = 0; i < count; i++) {
+            target.set(bin(peaks, i));
+        }
+        return target;
+    }
+
+    /**
+     * Number of components rendered to move the mix to the strongest count
+     * peaks, or bins.
+     */
+    private int changes(boolean peaks, int count) {
+        if (peaks == this.peaks) {
+            return Math.abs(count - this.count);
+        }
+        BitSet delta = target(peaks, count);
+        delta.xor(current);
+        return delta.cardinality();
+    }
+
+    private static int rebuildCost(int count) {
+        if (count <= SoundPrint.SPECTRAL_CROSSOVER) {
+            return count;
+        }
+        return REBUILD_BASE + count / REBUILD_RATIO;
+    }
+
+    private boolean rebuilds(boolean peaks, int count) {
+        return clipped || changes(peaks, count) > rebuildCost(count);
+    }
+
+    private int[] update(boolean peaks, int count, int parallelism) {
+        final long start = System.nanoTime();
+        if (rebuilds(peaks, count)) {
+            return rebuild(peaks, count, parallelism);
+        }
+        if (peaks == this.peaks) {
+            for (int i = Math.min(count, this.count); i < Math.max(count, this.count); i++) {
+                render(bin(peaks, i), count > this.count);
+            }
+        } else {
+            BitSet target = target(peaks, count);
+            BitSet delta = (BitSet) target.clone();
+            delta.xor(current);
+            for (int idx = delta.nextSetBit(0); idx >= 0; idx = delta.nextSetBit(idx + 1)) {
+                render(idx, target.get(idx));
+            }
+        }
+        this.peaks = peaks;
+        this.count = count;
+        int[] samples = new int[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, mix[i]));
+        }
+        Metrics.synthesis(System.nanoTime() - start, length);
+        return samples;
+    }
+
+    /**
+     * Adds or removes the component at bin idx.
+     */
+    private void render(int idx, boolean add) {
+        Arrays.fill(scratch, 0);
+        kernels.oscillator(scratch, 0, length, print.freqs[idx] * 2D * Math.PI / SoundUtils.SAMPLE_RATE, print.phases[idx], SoundPrint.AMPLITUDE * print.amps[idx]);
+        if (add) {
+            for (int i = 0; i < length; i++) {
+                mix[i] += scratch[i];
+            }
+            current.set(idx);
+        } else {
+            for (int i = 0; i < length; i++) {
+                mix[i] -= scratch[i];
+            }
+            current.clear(idx);
+        }
+    }
+
+    private int[] rebuild(boolean peaks, int count, int parallelism) {
+        TreeSet<SoundPrint.FourierData> data = new TreeSet<SoundPrint.FourierData>();
+        current.clear();
+        for (int i = 0; i < count; i++) {
+            int idx = bin(peaks, i);
+            data.add(print.get(idx));
+            current.set(idx);
+        }
+        int[] samples = SoundPrint.genSound(data, seconds, parallelism);
+        clipped = false;
+        for (int i = 0; i < length; i++) {
+            mix[i] = samples[i];
+            clipped |= samples[i] == Integer.MIN_VALUE || samples[i] == Integer.MAX_VALUE;
+        }
+        this.peaks = peaks;
+        this.count = count;
+        return samples;
+    }
+
+}
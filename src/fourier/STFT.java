@@ -0,0 +1,188 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Streaming short-time fourier transform. Samples are fed incrementally, for
+ * instance from a Recorder, and every hop samples the newest window of samples
+ * is weighted by the window function, transformed, and handed to listeners as
+ * a SoundPrint covering min_freq to max_freq. Only one window of samples is
+ * kept, so memory use does not grow with the length of the input.
+ *
+ * @author benland100
+ */
+public class STFT implements SoundUtils.SampleListener {
+
+    public enum Window {
+
+        RECTANGULAR(0D, 0D, 0D), HANN(0.5D, 0.5D, 0D), HAMMING(0.54D, 0.46D, 0D), BLACKMAN(0.42D, 0.5D, 0.08D);
+
+        private final double a0, a1, a2;
+
+        private Window(double a0, double a1, double a2) {
+            this.a0 = a0;
+            this.a1 = a1;
+            this.a2 = a2;
+        }
+
+        /**
+         * Periodic window coefficients of the given length.
+         */
+        public double[] coefficients(int length) {
+            double[] result = new double[length];
+            for (int i = 0; i < length; i++) {
+                if (this == RECTANGULAR) {
+                    result[i] = 1D;
+                } else {
+                    double x = 2D * Math.PI * i / length;
+                    result[i] = a0 - a1 * Math.cos(x) + a2 * Math.cos(2D * x);
+                }
+            }
+            return result;
+        }
+
+    }
+
+    public interface Listener {
+
+        /**
+         * Called on the feeding thread with the spectrum of the window that
+         * starts at sample start of the stream.
+         */
+        public void frame(STFT stft, long start, SoundPrint print);
+
+    }
+
+    public final int window, hop;
+    public final int low, high;
+
+    private final double[] coefficients;
+    private final double[] ring;
+    private final double[] frame;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private int pos;
+    private long fed;
+    private int pending;
+
+    public STFT(int window, int hop, Window function, double min_freq, double max_freq) {
+        if (window < 1 || hop < 1) {
+            throw new IllegalArgumentException("Window and hop must be positive");
+        }
+        this.window = window;
+        this.hop = hop;
+        low = Math.max(0, (int)(window/SoundUtils.SAMPLE_RATE*min_freq));
+        high = Math.min(window/2, (int)(window/SoundUtils.SAMPLE_RATE*max_freq));
+        if (high < low) {
+            throw new IllegalArgumentException("Frequency range holds no bins for this window");
+        }
+        coefficients = function.coefficients(window);
+        ring = new double[window];
+        frame = new double[window];
+        reset();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Forgets all samples fed so far.
+     */
+    public void reset() {
+        pos = 0;
+        fed = 0;
+        pending = window;
+    }
+
+    /**
+     * Total samples fed since construction or the last reset.
+     */
+    public long fed() {
+        return fed;
+    }
+
+    public void samples(int[] samples, int off, int len) {
+        feed(samples, off, len);
+    }
+
+    /**
+     * Appends samples to the stream, emitting a frame to listeners each time a
+     * full window ends on a multiple of hop.
+     */
+    public void feed(int[] samples, int off, int len) {
+        while (len > 0) {
+            int count = Math.min(len, Math.min(pending, window - pos));
+            for (int i = 0; i < count; i++) {
+                ring[pos + i] = samples[off + i];
+            }
+            pos = (pos + count) % window;
+            fed += count;
+            pending -= count;
+            off += count;
+            len -= count;
+            if (pending == 0) {
+                pending = hop;
+                emit();
+            }
+        }
+    }
+
+    private void emit() {
+        // pos is the oldest sample in the ring
+        for (int i = 0, j = pos; i < window; i++, j = j + 1 == window ? 0 : j + 1) {
+            frame[i] = ring[j] * coefficients[i];
+        }
+        RealFFT plan = RealFFT.acquire(window);
+        plan.load(frame, 0);
+        plan.transform();
+        final int len = high - low + 1;
+        double[] freqs = new double[len];
+        double[] amplitudes = new double[len];
+        double[] phases = new double[len];
+        double amplitude, real, imag;
+        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+        for (int k = low, c = 0; k <= high; k++, c++) {
+            real = plan.real[k];
+            imag = plan.imag[k];
+            freqs[c] = (double)k/window*SoundUtils.SAMPLE_RATE;
+            phases[c] = Math.atan2(imag, real);
+            amplitudes[c] = amplitude = Math.sqrt(real*real+imag*imag);
+            if (amplitude > max) max = amplitude;
+            if (amplitude < min) min = amplitude;
+        }
+        RealFFT.release(plan);
+        double range = max-min;
+        for (int i = 0; i < len; i++) {
+            amplitudes[i] = range > 0 ? (amplitudes[i]-min)/range : 0D;
+        }
+        SoundPrint print = new SoundPrint(freqs,amplitudes,phases);
+        long start = fed - window;
+        for (Listener listener : listeners) {
+            listener.frame(this, start, print);
+        }
+    }
+
+}
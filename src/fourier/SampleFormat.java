@@ -0,0 +1,58 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Mono SoundUtils.SAMPLE_RATE sample formats that recordings, playback and
+ * analysis can run on. PCM_32 is the format the rest of the project has
+ * always used; PCM_16 halves the memory of long recordings.
+ *
+ * @author benland100
+ */
+public enum SampleFormat {
+
+    PCM_16(2, 32768D), PCM_32(4, 2147483648D), FLOAT_32(4, 1D);
+
+    /** Bytes per sample in a line or file */
+    public final int bytes;
+    /** Magnitude of a full scale sample */
+    public final double full_scale;
+    /** Factor taking a sample to the PCM_32 range */
+    public final double scale;
+
+    private SampleFormat(int bytes, double full_scale) {
+        this.bytes = bytes;
+        this.full_scale = full_scale;
+        this.scale = 2147483648D / full_scale;
+    }
+
+    /**
+     * Big-endian line and file format of this sample format.
+     */
+    public AudioFormat audioFormat() {
+        if (this == FLOAT_32) {
+            return new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, SoundUtils.SAMPLE_RATE, 32, SoundUtils.CHANNELS, 4, SoundUtils.SAMPLE_RATE, SoundUtils.BIG_ENDIAN);
+        }
+        return new AudioFormat(SoundUtils.SAMPLE_RATE, bytes * 8, SoundUtils.CHANNELS, SoundUtils.SIGNED, SoundUtils.BIG_ENDIAN);
+    }
+
+}
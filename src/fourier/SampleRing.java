@@ -0,0 +1,168 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free ring of samples written by one producer, normally the Recorder's
+ * capture thread, and read by any number of independent cursors.
+ *
+ * The producer never waits for readers: it announces the range it is about to
+ * overwrite in claimed, writes the samples, and then advances published. A
+ * cursor copies samples below published and afterwards discards whatever the
+ * producer may have claimed in the meantime, so a slow reader loses its oldest
+ * samples instead of reading torn data, and each loss is counted.
+ *
+ * @author benland100
+ */
+public class SampleRing implements SoundUtils.SampleListener {
+
+    public final int capacity;
+    private final int mask;
+    private final AtomicIntegerArray buffer;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+
+    /**
+     * Ring holding at least capacity samples, rounded up to a power of two.
+     */
+    public SampleRing(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+        }
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = this.capacity - 1;
+        buffer = new AtomicIntegerArray(this.capacity);
+    }
+
+    /**
+     * Total number of samples ever written.
+     */
+    public long position() {
+        return published.get();
+    }
+
+    public void samples(int[] samples, int off, int len) {
+        write(samples, off, len);
+    }
+
+    /**
+     * Appends samples. Must only be called from the single producer thread.
+     */
+    public void write(int[] samples, int off, int len) {
+        long pos = published.get();
+        claimed.set(pos + len);
+        for (int i = 0; i < len; i++) {
+            buffer.lazySet((int) (pos + i) & mask, samples[off + i]);
+        }
+        published.lazySet(pos + len);
+    }
+
+    /**
+     * A new cursor starting at the newest sample.
+     */
+    public Cursor cursor() {
+        return new Cursor(published.get());
+    }
+
+    /**
+     * Independent read position in the ring, for use by one consumer thread.
+     */
+    public class Cursor {
+
+        private long pos;
+        private long lost = 0;
+        private int overruns = 0;
+
+        private Cursor(long pos) {
+            this.pos = pos;
+        }
+
+        public long position() {
+            return pos;
+        }
+
+        /**
+         * Samples that can be read without waiting.
+         */
+        public int available() {
+            return (int) Math.min(capacity, published.get() - pos);
+        }
+
+        /**
+         * Samples skipped because the producer overwrote them before they
+         * were read.
+         */
+        public long lost() {
+            return lost;
+        }
+
+        /**
+         * Number of times this cursor fell behind by more than the capacity.
+         */
+        public int overruns() {
+            return overruns;
+        }
+
+        /**
+         * Moves the cursor, backwards if need be, so that the next read
+         * returns the newest len samples, or as many as are held.
+         */
+        public void latest(int len) {
+            pos = Math.max(0, published.get() - Math.min(len, capacity));
+        }
+
+        /**
+         * Reads up to len samples without blocking and returns the number read,
+         * which may be zero. Samples overwritten before they could be read are
+         * skipped and counted by lost and overruns.
+         */
+        public int read(int[] dest, int off, int len) {
+            long head = published.get();
+            skip(head - capacity);
+            int count = (int) Math.min(len, head - pos);
+            for (int i = 0; i < count; i++) {
+                dest[off + i] = buffer.get((int) (pos + i) & mask);
+            }
+            // anything the producer has claimed since may have been overwritten mid copy
+            long valid = claimed.get() - capacity;
+            if (valid > pos) {
+                int bad = (int) Math.min(count, valid - pos);
+                System.arraycopy(dest, off + bad, dest, off, count - bad);
+                count -= bad;
+                skip(valid);
+            }
+            pos += count;
+            return count;
+        }
+
+        private void skip(long to) {
+            if (to > pos) {
+                lost += to - pos;
+                overruns++;
+                pos = to;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,239 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.util.Arrays;
+
+/**
+ * A fixed length buffer of samples held in their own SampleFormat, a short,
+ * int or float array, so 16 bit audio takes half the memory of the int
+ * arrays used elsewhere. Values read through get are in the format's own
+ * units; multiply by format.scale for the PCM_32 range.
+ *
+ * @author benland100
+ */
+public abstract class Samples {
+
+    public final SampleFormat format;
+    public final int length;
+
+    private Samples(SampleFormat format, int length) {
+        this.format = format;
+        this.length = length;
+    }
+
+    public static Samples allocate(SampleFormat format, int length) {
+        switch (format) {
+            case PCM_16:
+                return new Shorts(new short[length]);
+            case FLOAT_32:
+                return new Floats(new float[length]);
+            default:
+                return new Ints(new int[length]);
+        }
+    }
+
+    /**
+     * PCM_32 samples converted to format, rounding to the nearest value.
+     */
+    public static Samples fromInts(int[] samples, SampleFormat format) {
+        if (format == SampleFormat.PCM_32) {
+            return new Ints(samples);
+        }
+        Samples result = allocate(format, samples.length);
+        for (int i = 0; i < samples.length; i++) {
+            result.set(i, samples[i] / format.scale);
+        }
+        return result;
+    }
+
+    /**
+     * The samples converted to PCM_32, or the backing array itself when they
+     * already are.
+     */
+    public int[] toInts() {
+        int[] result = new int[length];
+        toInts(0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Converts len samples starting at from to PCM_32 in dest at off.
+     */
+    public void toInts(int from, int[] dest, int off, int len) {
+        for (int i = 0; i < len; i++) {
+            dest[off + i] = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.rint(get(from + i) * format.scale)));
+        }
+    }
+
+    public abstract double get(int i);
+
+    /**
+     * Stores value, rounded and clipped to the format's range.
+     */
+    public abstract void set(int i, double value);
+
+    /**
+     * Copies len samples from from into dest, of the same format, at off.
+     */
+    public abstract void copy(int from, Samples dest, int off, int len);
+
+    public abstract Samples copyOf(int length);
+
+    /**
+     * Converts count big-endian samples of this format in bytes at from into
+     * samples off onwards.
+     */
+    public abstract void decode(byte[] bytes, int from, int off, int count);
+
+    /**
+     * Converts count samples from off onwards to big-endian samples of this
+     * format in bytes at to.
+     */
+    public abstract void encode(int off, byte[] bytes, int to, int count);
+
+    public static class Shorts extends Samples {
+
+        public final short[] data;
+
+        public Shorts(short[] data) {
+            super(SampleFormat.PCM_16, data.length);
+            this.data = data;
+        }
+
+        public double get(int i) {
+            return data[i];
+        }
+
+        public void set(int i, double value) {
+            data[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.rint(value)));
+        }
+
+        public void copy(int from, Samples dest, int off, int len) {
+            System.arraycopy(data, from, ((Shorts) dest).data, off, len);
+        }
+
+        public Samples copyOf(int length) {
+            return new Shorts(Arrays.copyOf(data, length));
+        }
+
+        public void decode(byte[] bytes, int from, int off, int count) {
+            for (int i = from, end = off + count; off < end; i += 2) {
+                data[off++] = (short) ((bytes[i] << 8) | (bytes[i+1] & 0xFF));
+            }
+        }
+
+        public void encode(int off, byte[] bytes, int to, int count) {
+            for (int i = to, end = off + count; off < end; i += 2) {
+                short sample = data[off++];
+                bytes[i+0] = (byte) ((sample >> 8) & 0xFF);
+                bytes[i+1] = (byte) (sample & 0xFF);
+            }
+        }
+
+    }
+
+    public static class Ints extends Samples {
+
+        public final int[] data;
+
+        public Ints(int[] data) {
+            super(SampleFormat.PCM_32, data.length);
+            this.data = data;
+        }
+
+        public int[] toInts() {
+            return data;
+        }
+
+        public void toInts(int from, int[] dest, int off, int len) {
+            System.arraycopy(data, from, dest, off, len);
+        }
+
+        public double get(int i) {
+            return data[i];
+        }
+
+        public void set(int i, double value) {
+            data[i] = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.rint(value)));
+        }
+
+        public void copy(int from, Samples dest, int off, int len) {
+            System.arraycopy(data, from, ((Ints) dest).data, off, len);
+        }
+
+        public Samples copyOf(int length) {
+            return new Ints(Arrays.copyOf(data, length));
+        }
+
+        public void decode(byte[] bytes, int from, int off, int count) {
+            SoundUtils.decode(bytes, from, data, off, count);
+        }
+
+        public void encode(int off, byte[] bytes, int to, int count) {
+            SoundUtils.encode(data, off, bytes, to, count);
+        }
+
+    }
+
+    public static class Floats extends Samples {
+
+        public final float[] data;
+
+        public Floats(float[] data) {
+            super(SampleFormat.FLOAT_32, data.length);
+            this.data = data;
+        }
+
+        public double get(int i) {
+            return data[i];
+        }
+
+        public void set(int i, double value) {
+            data[i] = (float) value;
+        }
+
+        public void copy(int from, Samples dest, int off, int len) {
+            System.arraycopy(data, from, ((Floats) dest).data, off, len);
+        }
+
+        public Samples copyOf(int length) {
+            return new Floats(Arrays.copyOf(data, length));
+        }
+
+        public void decode(byte[] bytes, int from, int off, int count) {
+            for (int i = from, end = off + count; off < end; i += 4) {
+                data[off++] = Float.intBitsToFloat(((bytes[i] & 0xFF) << 24) | ((bytes[i+1] & 0xFF) << 16) | ((bytes[i+2] & 0xFF) << 8) | (bytes[i+3] & 0xFF));
+            }
+        }
+
+        public void encode(int off, byte[] bytes, int to, int count) {
+            for (int i = to, end = off + count; off < end; i += 4) {
+                int bits = Float.floatToRawIntBits(data[off++]);
+                bytes[i+0] = (byte) ((bits >> 24) & 0xFF);
+                bytes[i+1] = (byte) ((bits >> 16) & 0xFF);
+                bytes[i+2] = (byte) ((bits >> 8) & 0xFF);
+                bytes[i+3] = (byte) (bits & 0xFF);
+            }
+        }
+
+    }
+
+}
@@ -20,9 +20,15 @@
 package fourier;
 
 import java.text.DecimalFormat;
+import java.util.BitSet;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
+ * Fourier data stored as parallel primitive arrays indexed by bin, with the
+ * bins ranked by amplitude and the local maxima precomputed so threshold and
+ * peak queries binary search for their cutoff instead of scanning every bin.
  *
  * @author benland100
  */
@@ -30,7 +36,9 @@ public class SoundPrint {
 
     public final int length;
     public final double[] freqs, amps, phases;
-    private final TreeSet<FourierData> data;
+    /** Bins from strongest to weakest, and the local maxima among them */
+    private final int[] ranked, peaks;
+    private final BitSet peak;
 
     public static class FourierData implements Comparable<FourierData> {
 
@@ -53,7 +61,6 @@ public class SoundPrint {
     }
 
     public SoundPrint(TreeSet<FourierData> data) {
-        this.data = new TreeSet<FourierData>(data);
         length = data.size();
         freqs = new double[length];
         amps = new double[length];
@@ -63,6 +70,9 @@ public class SoundPrint {
             amps[fourier.idx] = fourier.amp;
             phases[fourier.idx] = fourier.phase;
         }
+        ranked = rank();
+        peak = new BitSet(length);
+        peaks = findPeaks();
     }
 
     public SoundPrint(double[] freqs, double[] amps, double[] phases) {
@@ -73,36 +83,120 @@ public class SoundPrint {
         if (length != amps.length || length != phases.length) {
             throw new IllegalArgumentException("Lengths of fourier data arrays are not equal");
         }
-        data = new TreeSet<FourierData>();
+        ranked = rank();
+        peak = new BitSet(length);
+        peaks = findPeaks();
+    }
+
+    /**
+     * Sorts bin indices in descending FourierData order, amplitude then
+     * frequency, with a merge sort on the primitive arrays.
+     */
+    private int[] rank() {
+        int[] order = new int[length];
+        int[] temp = new int[length];
         for (int i = 0; i < length; i++) {
-            data.add(new FourierData(i, freqs[i], amps[i], phases[i]));
+            order[i] = i;
+        }
+        for (int width = 1; width < length; width <<= 1) {
+            for (int lo = 0; lo < length; lo += width << 1) {
+                int mid = Math.min(lo + width, length), hi = Math.min(lo + (width << 1), length);
+                for (int i = lo, a = lo, b = mid; i < hi; i++) {
+                    temp[i] = b >= hi || (a < mid && compare(order[a], order[b]) >= 0) ? order[a++] : order[b++];
+                }
+            }
+            int[] t = order; order = temp; temp = t;
+        }
+        return order;
+    }
+
+    private int compare(int a, int b) {
+        int ampcomp = (int) Math.signum(amps[a] - amps[b]);
+        return ampcomp == 0 ? (int) Math.signum(freqs[a] - freqs[b]) : ampcomp;
+    }
+
+    private int[] findPeaks() {
+        int count = 0;
+        for (int idx = 1; idx < length - 1; idx++) {
+            if (amps[idx] > amps[idx - 1] && amps[idx] > amps[idx + 1]) {
+                peak.set(idx);
+                count++;
+            }
+        }
+        int[] result = new int[count];
+        for (int i = 0, c = 0; c < count; i++) {
+            if (peak.get(ranked[i])) {
+                result[c++] = ranked[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Number of leading entries of the ranked bins with amplitude at least
+     * threshold.
+     */
+    private int cutoff(int[] bins, double threshold) {
+        int lo = 0, hi = bins.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (amps[bins[mid]] < threshold) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
         }
+        return lo;
+    }
+
+    /**
+     * Number of bins with amplitude at least threshold.
+     */
+    public int thresholdCount(double threshold) {
+        return cutoff(ranked, threshold);
+    }
+
+    /**
+     * Number of local maxima with amplitude at least threshold.
+     */
+    public int peakCount(double threshold) {
+        return cutoff(peaks, threshold);
+    }
+
+    /**
+     * Bin index of the i-th strongest bin.
+     */
+    public int ranked(int i) {
+        return ranked[i];
+    }
+
+    /**
+     * Bin index of the i-th strongest local maximum.
+     */
+    public int peak(int i) {
+        return peaks[i];
+    }
+
+    public boolean isPeak(int idx) {
+        return peak.get(idx);
+    }
+
+    public FourierData get(int idx) {
+        return new FourierData(idx, freqs[idx], amps[idx], phases[idx]);
     }
 
     public TreeSet<FourierData> threshold(double threshold) {
         TreeSet<FourierData> result = new TreeSet<FourierData>();
-        for (FourierData fourier : data.descendingSet()) {
-            if (fourier.amp < threshold) {
-                break;
-            }
-            result.add(fourier);
+        for (int i = 0, count = thresholdCount(threshold); i < count; i++) {
+            result.add(get(ranked[i]));
         }
         return result;
     }
 
     public TreeSet<FourierData> getPeaks(double threshold) {
         TreeSet<FourierData> result = new TreeSet<FourierData>();
-        double amp;
-        int idx;
-        for (FourierData fourier : data.descendingSet()) {
-            amp = fourier.amp;
-            idx = fourier.idx;
-            if (amp < threshold) {
-                break;
-            }
-            if ((idx > 0 && amp > amps[idx - 1]) && (idx < length - 1 && amp > amps[idx + 1])) {
-                result.add(fourier);
-            }
+        for (int i = 0, count = peakCount(threshold); i < count; i++) {
+            result.add(get(peaks[i]));
         }
         return result;
     }
@@ -118,27 +212,89 @@ public class SoundPrint {
     public void dumpData() {
         DecimalFormat onedec = new DecimalFormat("#0.0");
         DecimalFormat fourdec = new DecimalFormat("#0.0000");
-        for (FourierData fourier : data) {
+        for (int i = length - 1; i >= 0; i--) {
+            FourierData fourier = get(ranked[i]);
             System.out.println("Freq: " + onedec.format(fourier.freq) + "\tAmplitude: " + fourdec.format(fourier.amp) + "\tPhase: " + fourdec.format(fourier.phase));
         }
     }
 
+    /**
+     * Number of components above which genSound renders through an inverse
+     * FFT with overlap-add instead of an oscillator per component.
+     */
+    public final static int SPECTRAL_CROSSOVER = 64;
+
+    /** Output amplitude genSound gives a component of amp 1 */
+    public final static float AMPLITUDE = 1610612735.625f / 16f;
+
     public static int[] genSound(TreeSet<FourierData> data, double seconds) {
+        return genSound(data, seconds, 1);
+    }
+
+    /**
+     * Generates sound split into time blocks across parallelism threads. Each
+     * block starts its partials at their own phase, so the result is identical
+     * to the sequential one for any parallelism.
+     */
+    public static int[] genSound(TreeSet<FourierData> data, double seconds, int parallelism) {
         final float framerate = 44100f;
-        final float amplitude = 1610612735.625f / 16f;
+        final float amplitude = AMPLITUDE;
         final int length = (int) (0.5 + seconds * framerate);
+        final long start = System.nanoTime();
         final int[] samples = new int[length];
-        for (FourierData fourier : data) {
-            double factor = fourier.freq * 2D * Math.PI / framerate;
-            double phase = fourier.phase;
-            double amp = fourier.amp;
-            for (int i = 0; i < length; i++) {
-                samples[i] += amplitude * amp * Math.sin(factor * i + phase);
-            }
+        Synthesizer synth;
+        if (data.size() > SPECTRAL_CROSSOVER) {
+            synth = new OverlapAddSynth(data, framerate, amplitude);
+        } else {
+            synth = new OscillatorBank(data, framerate, amplitude);
         }
+        ForkJoinPool pool = SoundUtils.pool(parallelism);
+        if (pool == null || length <= Synthesizer.BLOCK) {
+            synth.render(samples, 0, length);
+        } else {
+            pool.invoke(new Render(synth, samples, 0, length));
+        }
+        Metrics.synthesis(System.nanoTime() - start, length);
         return samples;
     }
 
+    /**
+     * Generates sound in the given format. Synthesis runs on PCM_32 samples,
+     * which are then converted.
+     */
+    public static Samples genSound(TreeSet<FourierData> data, double seconds, int parallelism, SampleFormat format) {
+        return Samples.fromInts(genSound(data, seconds, parallelism), format);
+    }
+
+    /**
+     * Renders a range of samples, recursively split into halves on
+     * Synthesizer.BLOCK boundaries.
+     */
+    private static class Render extends RecursiveAction {
+
+        private final Synthesizer synth;
+        private final int[] samples;
+        private final int from, to;
+
+        public Render(Synthesizer synth, int[] samples, int from, int to) {
+            this.synth = synth;
+            this.samples = samples;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            int blocks = (to - from + Synthesizer.BLOCK - 1) / Synthesizer.BLOCK;
+            if (blocks <= 1) {
+                synth.render(samples, from, to);
+            } else {
+                int mid = from + blocks / 2 * Synthesizer.BLOCK;
+                invokeAll(new Render(synth, samples, from, mid), new Render(synth, samples, mid, to));
+            }
+        }
+
+    }
+
     public static String dump(TreeSet<FourierData> data) {
         StringBuilder result = new StringBuilder();
         for (FourierData fourier : data) {
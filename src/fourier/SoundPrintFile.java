@@ -0,0 +1,187 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.TreeSet;
+
+/**
+ * Binary SoundPrint format, the compact counterpart of SoundPrint.dump/read.
+ *
+ * A 16 byte little-endian header (magic "SPRT", version, flags, count and a
+ * reserved int) is followed by the freq, amp and phase columns, each count
+ * little-endian doubles, or floats when FLAG_FLOAT is set. Opened files are
+ * memory mapped and read lazily straight from the mapping, so opening a
+ * print costs the same regardless of its size.
+ *
+ * @author benland100
+ */
+public class SoundPrintFile {
+
+    public final static int MAGIC = 0x54525053;
+    public final static short VERSION = 1;
+    public final static short FLAG_FLOAT = 1;
+    public final static int HEADER = 16;
+
+    public final int length;
+    public final boolean floats;
+    private final ByteBuffer buffer;
+    private final int width;
+
+    /**
+     * Reads prints from a buffer holding the format, without copying it.
+     */
+    public SoundPrintFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (this.buffer.remaining() < HEADER || this.buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a sound print file");
+        }
+        if (this.buffer.getShort(4) > VERSION) {
+            throw new IOException("Unsupported sound print version " + this.buffer.getShort(4));
+        }
+        floats = (this.buffer.getShort(6) & FLAG_FLOAT) != 0;
+        width = floats ? 4 : 8;
+        length = this.buffer.getInt(8);
+        if (length < 0 || this.buffer.remaining() < HEADER + 3L * width * length) {
+            throw new IOException("Truncated sound print file");
+        }
+    }
+
+    /**
+     * Memory maps a sound print file.
+     */
+    public static SoundPrintFile open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return new SoundPrintFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    public double freq(int idx) {
+        return get(0, idx);
+    }
+
+    public double amp(int idx) {
+        return get(1, idx);
+    }
+
+    public double phase(int idx) {
+        return get(2, idx);
+    }
+
+    private double get(int column, int idx) {
+        if (idx < 0 || idx >= length) {
+            throw new IndexOutOfBoundsException("Index " + idx + " of " + length);
+        }
+        int pos = HEADER + (column * length + idx) * width;
+        return floats ? buffer.getFloat(pos) : buffer.getDouble(pos);
+    }
+
+    public SoundPrint toSoundPrint() {
+        double[] freqs = new double[length];
+        double[] amps = new double[length];
+        double[] phases = new double[length];
+        for (int i = 0; i < length; i++) {
+            freqs[i] = freq(i);
+            amps[i] = amp(i);
+            phases[i] = phase(i);
+        }
+        return new SoundPrint(freqs, amps, phases);
+    }
+
+    /**
+     * Equivalent of SoundPrint.read, numbering the data in file order.
+     */
+    public TreeSet<SoundPrint.FourierData> toData() {
+        TreeSet<SoundPrint.FourierData> result = new TreeSet<SoundPrint.FourierData>();
+        for (int i = 0; i < length; i++) {
+            result.add(new SoundPrint.FourierData(i, freq(i), amp(i), phase(i)));
+        }
+        return result;
+    }
+
+    /**
+     * Encodes every bin of a print.
+     */
+    public static ByteBuffer encode(SoundPrint print, boolean floats) {
+        ByteBuffer buffer = allocate(print.length, floats);
+        for (double[] column : new double[][] { print.freqs, print.amps, print.phases }) {
+            for (int i = 0; i < print.length; i++) {
+                put(buffer, column[i], floats);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes data in iteration order, the equivalent of SoundPrint.dump.
+     */
+    public static ByteBuffer encode(Collection<SoundPrint.FourierData> data, boolean floats) {
+        ByteBuffer buffer = allocate(data.size(), floats);
+        for (SoundPrint.FourierData fourier : data) {
+            put(buffer, fourier.freq, floats);
+        }
+        for (SoundPrint.FourierData fourier : data) {
+            put(buffer, fourier.amp, floats);
+        }
+        for (SoundPrint.FourierData fourier : data) {
+            put(buffer, fourier.phase, floats);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer allocate(int length, boolean floats) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + 3 * length * (floats ? 4 : 8)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort(floats ? FLAG_FLOAT : 0);
+        buffer.putInt(length);
+        buffer.putInt(0);
+        return buffer;
+    }
+
+    private static void put(ByteBuffer buffer, double value, boolean floats) {
+        if (floats) {
+            buffer.putFloat((float) value);
+        } else {
+            buffer.putDouble(value);
+        }
+    }
+
+    public static void write(SoundPrint print, File file, boolean floats) throws IOException {
+        IOUtils.write(encode(print, floats), file);
+    }
+
+    public static void write(Collection<SoundPrint.FourierData> data, File file, boolean floats) throws IOException {
+        IOUtils.write(encode(data, floats), file);
+    }
+
+}
@@ -19,12 +19,23 @@
 
 package fourier;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
 import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.TargetDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
 
 /**
  *
@@ -37,6 +48,25 @@ public class SoundUtils {
     public final static int CHANNELS = 1;
     public final static boolean SIGNED = true;
     public final static boolean BIG_ENDIAN = true;
+
+    private final static HashMap<Integer,ForkJoinPool> pools = new HashMap<Integer,ForkJoinPool>();
+
+    /**
+     * Shared pool with the given parallelism, or null for one or fewer threads.
+     */
+    public static ForkJoinPool pool(int parallelism) {
+        if (parallelism <= 1) {
+            return null;
+        }
+        synchronized (pools) {
+            ForkJoinPool pool = pools.get(parallelism);
+            if (pool == null) {
+                pool = new ForkJoinPool(parallelism);
+                pools.put(parallelism, pool);
+            }
+            return pool;
+        }
+    }
     
     public static void play(int[] samples) {
         Player play = new Player();
@@ -50,46 +80,233 @@ public class SoundUtils {
     }
     
     public static SoundPrint fourier(int[] samples, double min_freq, double max_freq) {
+        return fourier(samples, min_freq, max_freq, 1);
+    }
+
+    /**
+     * Fourier transform split across parallelism threads. The result is
+     * identical to the sequential transform for any parallelism. When only a
+     * few bins are requested relative to the number of samples they are
+     * computed individually instead of with a full FFT.
+     */
+    public static SoundPrint fourier(int[] samples, double min_freq, double max_freq, int parallelism) {
+        return fourier(new Samples.Ints(samples), min_freq, max_freq, parallelism);
+    }
+
+    public static SoundPrint fourier(Samples samples, double min_freq, double max_freq) {
+        return fourier(samples, min_freq, max_freq, 1);
+    }
+
+    /**
+     * Fourier transform of samples in any format, read straight from their
+     * own storage. Samples are scaled to the PCM_32 range, so the print is
+     * the same as for the equivalent int samples.
+     */
+    public static SoundPrint fourier(Samples samples, double min_freq, double max_freq, int parallelism) {
+        final long start = System.nanoTime();
         final int low = (int)(samples.length/SAMPLE_RATE*min_freq);
         final int high = (int)(samples.length/SAMPLE_RATE*max_freq);
         final int len = high - low + 1;
-        final double fact = Math.PI*2D/samples.length;
-        double[] dft_real = new double[len];
-        double[] dft_imag = new double[len];
+        final int n = samples.length;
         double[] freqs = new double[len];
         double[] amplitudes = new double[len];
         double[] phases = new double[len];
         double amplitude, real, imag;
         double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
-        for (int i = low, c = 0; i <= high; i++, c++) {
-            real = imag = 0;
-            for (int j = 0; j < samples.length; j++) {
-                real += samples[j]*Math.cos(fact*i*j);
-                imag -= samples[j]*Math.sin(fact*i*j);
-            }
-            dft_real[c] = real;
-            dft_imag[c] = imag;
-            freqs[c] = (double)(i+low)/samples.length*SAMPLE_RATE;
+        if (n > 0 && Zoom.useGoertzel(n, len)) {
+            double[] dft_real = new double[len];
+            double[] dft_imag = new double[len];
+            Zoom.goertzel(samples, Math.PI*2D*low/n, Math.PI*2D/n, len, dft_real, dft_imag);
+            for (int i = low, c = 0; i <= high; i++, c++) {
+                real = dft_real[c];
+                imag = dft_imag[c];
+                freqs[c] = (double)(i+low)/samples.length*SAMPLE_RATE;
+                phases[c] = Math.atan2(imag, real);
+                amplitudes[c] = amplitude = Math.sqrt(real*real+imag*imag);
+                if (amplitude > max) max = amplitude;
+                if (amplitude < min) min = amplitude;
+            }
+        } else {
+            RealFFT plan = RealFFT.acquire(n);
+            plan.load(samples, 0);
+            plan.transform(pool(parallelism));
+            double[] dft_real = plan.real;
+            double[] dft_imag = plan.imag;
+            for (int i = low, c = 0; i <= high; i++, c++) {
+                if (n > 0) {
+                    // bins past the end wrap around, as they would in a direct DFT,
+                    // and bins past the middle mirror the ones below it
+                    int k = i % n;
+                    if (k < plan.bins) {
+                        real = dft_real[k];
+                        imag = dft_imag[k];
+                    } else {
+                        real = dft_real[n - k];
+                        imag = -dft_imag[n - k];
+                    }
+                } else {
+                    real = imag = 0;
+                }
+                freqs[c] = (double)(i+low)/samples.length*SAMPLE_RATE;
+                phases[c] = Math.atan2(imag, real);
+                amplitudes[c] = amplitude = Math.sqrt(real*real+imag*imag);
+                if (amplitude > max) max = amplitude;
+                if (amplitude < min) min = amplitude;
+            }
+            RealFFT.release(plan);
+        }
+        double range = max-min;
+        for (int i = 0; i < len; i++) {
+            amplitudes[i] = (amplitudes[i]-low)/range;
+        }
+        Metrics.fourier(System.nanoTime() - start, n);
+        return new SoundPrint(freqs,amplitudes,phases);
+    }
+
+    /**
+     * Zoomed fourier transform sampling bins frequencies evenly from min_freq
+     * to max_freq inclusive, at any resolution, using the chirp-z transform
+     * or Goertzel recurrence so only the requested band is computed.
+     */
+    public static SoundPrint zoom(int[] samples, double min_freq, double max_freq, int bins) {
+        final double step = bins > 1 ? (max_freq - min_freq) / (bins - 1) : 0D;
+        double[] freqs = new double[bins];
+        double[] amplitudes = new double[bins];
+        double[] phases = new double[bins];
+        double[] dft_real = new double[bins];
+        double[] dft_imag = new double[bins];
+        Zoom.transform(samples, Math.PI*2D*min_freq/SAMPLE_RATE, Math.PI*2D*step/SAMPLE_RATE, bins, dft_real, dft_imag);
+        double amplitude, real, imag;
+        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+        for (int c = 0; c < bins; c++) {
+            real = dft_real[c];
+            imag = dft_imag[c];
+            freqs[c] = min_freq + c*step;
             phases[c] = Math.atan2(imag, real);
             amplitudes[c] = amplitude = Math.sqrt(real*real+imag*imag);
             if (amplitude > max) max = amplitude;
             if (amplitude < min) min = amplitude;
         }
         double range = max-min;
-        for (int i = 0; i < len; i++) {
-            amplitudes[i] = (amplitudes[i]-low)/range;
+        for (int i = 0; i < bins; i++) {
+            amplitudes[i] = (amplitudes[i]-min)/range;
         }
         return new SoundPrint(freqs,amplitudes,phases);
     }
 
+    /**
+     * Converts count big-endian 32 bit samples in bytes at from to ints in
+     * samples at off.
+     */
+    static void decode(byte[] bytes, int from, int[] samples, int off, int count) {
+        Kernels.get().decode(bytes, from, samples, off, count);
+    }
+
+    /**
+     * Converts count samples at off to big-endian 32 bit samples in bytes at
+     * to.
+     */
+    static void encode(int[] samples, int off, byte[] bytes, int to, int count) {
+        Kernels.get().encode(samples, off, bytes, to, count);
+    }
+
+    /**
+     * Number of samples read would return for an audio file, estimated from
+     * the file size when the header does not say.
+     */
+    public static long frames(File file) throws IOException, UnsupportedAudioFileException {
+        AudioFileFormat type = AudioSystem.getAudioFileFormat(file);
+        AudioFormat format = type.getFormat();
+        long frames = type.getFrameLength();
+        if (frames == AudioSystem.NOT_SPECIFIED) {
+            frames = file.length() / Math.max(1, format.getFrameSize());
+        }
+        return (long)Math.ceil(frames * (double)SAMPLE_RATE / format.getFrameRate());
+    }
+
+    /**
+     * Reads any audio file the sound system can decode, converted to mono
+     * SAMPLE_RATE samples of the format this class records and plays.
+     */
+    public static int[] read(File file) throws IOException, UnsupportedAudioFileException {
+        return read(file, SampleFormat.PCM_32).toInts();
+    }
+
+    /**
+     * Reads any audio file the sound system can decode, converted to mono
+     * SAMPLE_RATE samples of the given format.
+     */
+    public static Samples read(File file, SampleFormat format) throws IOException, UnsupportedAudioFileException {
+        AudioFormat target = format.audioFormat();
+        AudioInputStream in = AudioSystem.getAudioInputStream(file);
+        try {
+            if (!in.getFormat().matches(target)) {
+                in = AudioSystem.getAudioInputStream(target, in);
+            }
+            long frames = in.getFrameLength();
+            Samples samples = Samples.allocate(format, frames == AudioSystem.NOT_SPECIFIED ? 1 << 16 : (int)frames);
+            byte[] buffer = new byte[Recorder.READ_FRAMES * format.bytes];
+            int length = 0, count, carry = 0;
+            while ((count = in.read(buffer, carry, buffer.length - carry)) > 0) {
+                count += carry;
+                int read = count / format.bytes;
+                if (length + read > samples.length) {
+                    samples = samples.copyOf(Math.max(length + read, samples.length * 2));
+                }
+                samples.decode(buffer, 0, length, read);
+                length += read;
+                carry = count - read * format.bytes;
+                System.arraycopy(buffer, read * format.bytes, buffer, 0, carry);
+            }
+            return length == samples.length ? samples : samples.copyOf(length);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Receives blocks of samples as they are captured. The block is only valid
+     * for the duration of the call.
+     */
+    public interface SampleListener {
+
+        public void samples(int[] samples, int off, int len);
+
+    }
+
+    /**
+     * Records from the default capture line. Samples are decoded as they are
+     * read into fixed size chunks of CHUNK samples, so memory grows in
+     * predictable steps with the length of the recording and stopping
+     * requires no conversion. Chunks are kept in the format recorded in;
+     * listeners and the ring always receive PCM_32 samples.
+     */
     public static class Recorder extends Thread {
 
-        private boolean recording = false;
-        private ByteArrayOutputStream data = new ByteArrayOutputStream();
-        private int[] samples = new int[0];
+        /** Frames read from the line at a time, about 46ms */
+        public final static int READ_FRAMES = 2048;
+        /** Samples per chunk of the recording, about 1.5s */
+        public final static int CHUNK = 1 << 16;
+        /** Samples held by the live ring, about 6s */
+        public final static int RING = 1 << 18;
+
+        public final SampleFormat format;
+        private volatile boolean recording = false;
+        private final SampleRing ring = new SampleRing(RING);
+        private final ArrayList<Samples> chunks = new ArrayList<Samples>();
+        private int length = 0;
+        private int[] samples = null;
+        private Samples recording_samples = null;
+        private final CopyOnWriteArrayList<SampleListener> listeners = new CopyOnWriteArrayList<SampleListener>();
 
         public Recorder() {
+            this(SampleFormat.PCM_32);
+        }
+
+        public Recorder(SampleFormat format) {
             super("Recorder");
+            this.format = format;
+            listeners.add(ring);
         }
 
         public boolean recording() {
@@ -104,7 +321,10 @@ public class SoundUtils {
             if (recording) {
                 throw new RuntimeException("Recorder is currently recording and cannot start again");
             } else {
-                samples =  new int[0];
+                chunks.clear();
+                length = 0;
+                samples = null;
+                recording_samples = null;
                 recording = true;
                 super.start();
             }
@@ -119,45 +339,236 @@ public class SoundUtils {
             }
         }
 
+        /**
+         * Number of samples recorded, valid once recording has stopped.
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Chunks of the recording in the recorded format, each CHUNK samples
+         * long except for the last which holds the remaining samples. Valid
+         * once recording has stopped.
+         */
+        public List<Samples> getChunks() {
+            return Collections.unmodifiableList(chunks);
+        }
+
+        /**
+         * Copies len samples starting at sample from into dest at off,
+         * converted to PCM_32.
+         */
+        public void getSamples(int from, int[] dest, int off, int len) {
+            while (len > 0) {
+                int chunk = from / CHUNK, pos = from % CHUNK;
+                int count = Math.min(len, CHUNK - pos);
+                chunks.get(chunk).toInts(pos, dest, off, count);
+                from += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        /**
+         * The whole recording as one PCM_32 array. The chunks are joined on
+         * the first call only, so prefer getChunks or getSamples(from, dest,
+         * off, len) for long recordings.
+         */
         public int[] getSamples() {
+            if (samples == null) {
+                samples = new int[length];
+                getSamples(0, samples, 0, length);
+            }
             return samples;
         }
 
+        /**
+         * The whole recording in the recorded format, joined on the first
+         * call only.
+         */
+        public Samples getRecording() {
+            if (recording_samples == null) {
+                recording_samples = Samples.allocate(format, length);
+                for (int c = 0, off = 0; c < chunks.size(); off += chunks.get(c).length, c++) {
+                    chunks.get(c).copy(0, recording_samples, off, chunks.get(c).length);
+                }
+            }
+            return recording_samples;
+        }
+
+        /**
+         * Ring the recording thread publishes every block of samples to as it
+         * is captured, for consumers that read live audio at their own pace.
+         */
+        public SampleRing getRing() {
+            return ring;
+        }
+
+        /**
+         * Adds a listener that is handed each block of samples on the
+         * recording thread while recording continues.
+         */
+        public void addListener(SampleListener listener) {
+            listeners.add(listener);
+        }
+
+        public void removeListener(SampleListener listener) {
+            listeners.remove(listener);
+        }
+
         public void run() {
             try {
-                data.reset();
-                AudioFormat format = new AudioFormat(SAMPLE_RATE, SAMPLE_SIZE, CHANNELS, SIGNED, BIG_ENDIAN);
-                DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
+                AudioFormat audio = format.audioFormat();
+                DataLine.Info info = new DataLine.Info(TargetDataLine.class, audio);
                 TargetDataLine line = (TargetDataLine) AudioSystem.getLine(info);
-                line.open(format);
+                line.open(audio);
                 line.start();
-                byte[] buffer = new byte[(int)format.getSampleRate() * format.getFrameSize()];
+                final int width = format.bytes;
+                byte[] buffer = new byte[READ_FRAMES * width];
+                int[] block = format == SampleFormat.PCM_32 ? null : new int[READ_FRAMES];
+                Samples chunk = null;
+                int fill = CHUNK;
                 int count;
                 while (recording) {
+                    int available = line.available();
+                    // the buffer holds whole frames, and the line only reads whole frames
                     count = line.read(buffer, 0, buffer.length);
-                    if (count > 0) {
-                      data.write(buffer, 0, count);
+                    Metrics.capture(available, line.getBufferSize(), count / width);
+                    for (int i = 0; i < count; ) {
+                        if (fill == CHUNK) {
+                            chunk = Samples.allocate(format, CHUNK);
+                            chunks.add(chunk);
+                            fill = 0;
+                        }
+                        int n = Math.min((count - i) / width, CHUNK - fill);
+                        chunk.decode(buffer, i, fill, n);
+                        i += n * width;
+                        length += n;
+                        int[] data = block;
+                        int start = 0;
+                        if (block == null) {
+                            data = ((Samples.Ints) chunk).data;
+                            start = fill;
+                        } else {
+                            chunk.toInts(fill, block, 0, n);
+                        }
+                        for (SampleListener listener : listeners) {
+                            listener.samples(data, start, n);
+                        }
+                        fill += n;
                     }
                 }
                 line.flush();
                 line.stop();
                 line.close();
-                byte[] bytes = data.toByteArray();
-                samples = new int[bytes.length / 4];
-                for (int i = 0; i < bytes.length; i+=4) {
-                    samples[i/4] = ((bytes[i] & 0xFF) << 24) | ((bytes[i+1] & 0xFF) << 16) | ((bytes[i+2] & 0xFF) << 8) | (bytes[i+3] & 0xFF);
+                if (chunk != null && fill < CHUNK) {
+                    chunks.set(chunks.size() - 1, chunk.copyOf(fill));
                 }
             } catch (Exception e) {
+                Metrics.error(e);
                 e.printStackTrace();
             }
         }
 
     }
 
+    /**
+     * Source of samples to play, read a block at a time.
+     */
+    public interface SampleSource {
+
+        /**
+         * Reads up to len samples into samples at off, returning the number
+         * read or -1 once the source is exhausted.
+         */
+        public int read(int[] samples, int off, int len);
+
+    }
+
+    /**
+     * Source reading through an array of samples.
+     */
+    public static SampleSource source(final int[] samples) {
+        return new SampleSource() {
+            private int pos = 0;
+            public int read(int[] dest, int off, int len) {
+                if (pos >= samples.length) {
+                    return -1;
+                }
+                int count = Math.min(len, samples.length - pos);
+                System.arraycopy(samples, pos, dest, off, count);
+                pos += count;
+                return count;
+            }
+        };
+    }
+
+    private static SourceDataLine idle_line = null;
+
+    /**
+     * An open playback line for format, reusing the line left by the last
+     * finished Player when it has the same format.
+     */
+    private static SourceDataLine acquireLine(SampleFormat format) throws Exception {
+        AudioFormat audio = format.audioFormat();
+        synchronized (SoundUtils.class) {
+            if (idle_line != null && idle_line.getFormat().matches(audio)) {
+                SourceDataLine line = idle_line;
+                idle_line = null;
+                return line;
+            }
+        }
+        DataLine.Info info = new DataLine.Info(SourceDataLine.class, audio);
+        SourceDataLine line = (SourceDataLine) AudioSystem.getLine(info);
+        line.open(audio);
+        return line;
+    }
+
+    private static void releaseLine(SourceDataLine line) {
+        SourceDataLine replaced;
+        synchronized (SoundUtils.class) {
+            if (!line.isOpen()) {
+                return;
+            }
+            replaced = idle_line;
+            idle_line = line;
+        }
+        if (replaced != null) {
+            replaced.close();
+        }
+    }
+
+    /**
+     * Closes the playback line kept open for reuse, if any. Called when the
+     * frames that play sound are closed.
+     */
+    public static void closeLines() {
+        SourceDataLine line;
+        synchronized (SoundUtils.class) {
+            line = idle_line;
+            idle_line = null;
+        }
+        if (line != null) {
+            line.close();
+        }
+    }
+
+    /**
+     * Plays a SampleSource, converting PLAY_FRAMES samples at a time just
+     * ahead of the line so playback starts without converting the whole
+     * clip first. The open line is kept for the next Player once it has
+     * drained, and closed if playback failed.
+     */
     public static class Player extends Thread {
 
+        /** Frames converted and written to the line at a time, about 23ms */
+        public final static int PLAY_FRAMES = 1024;
+
         private boolean playing = false;
-        private int[] samples;
+        private SampleSource source;
+        private Samples clip;
+        private int position;
 
         public Player() {
             super("Player");
@@ -172,39 +583,90 @@ public class SoundUtils {
         }
 
         public void play(int[] samples) {
+            play(source(samples));
+        }
+
+        public void play(SampleSource source) {
+            if (playing) {
+                throw new RuntimeException("Player is already playing and cannot play again");
+            } else {
+                this.source = source;
+                playing = true;
+                super.start();
+            }
+        }
+
+        /**
+         * Plays samples through a line in their own format, without
+         * converting them to PCM_32 first.
+         */
+        public void play(Samples samples) {
             if (playing) {
                 throw new RuntimeException("Player is already playing and cannot play again");
             } else {
-                this.samples = samples;
+                this.clip = samples;
                 playing = true;
                 super.start();
             }
         }
 
+        /**
+         * Encodes the next block to play into bytes, returning the number of
+         * samples in it or -1 at the end.
+         */
+        private int next(int[] samples, byte[] bytes) {
+            if (clip != null) {
+                int count = Math.min(PLAY_FRAMES, clip.length - position);
+                if (count <= 0) {
+                    return -1;
+                }
+                clip.encode(position, bytes, 0, count);
+                position += count;
+                return count;
+            }
+            int count = source.read(samples, 0, PLAY_FRAMES);
+            if (count > 0) {
+                encode(samples, 0, bytes, 0, count);
+            }
+            return count;
+        }
+
         public void run() {
-            byte[] bytes = new byte[samples.length * 4];
-            for (int i = 0; i < samples.length; i++) {
-                bytes[i*4+0] = (byte) ((samples[i] >> 24) & 0xFF);
-                bytes[i*4+1] = (byte) ((samples[i] >> 16) & 0xFF);
-                bytes[i*4+2] = (byte) ((samples[i] >> 8) & 0xFF);
-                bytes[i*4+3] = (byte) ((samples[i] >> 0) & 0xFF);
-             }
             try {
-                AudioFormat format = new AudioFormat(SAMPLE_RATE, SAMPLE_SIZE, CHANNELS, SIGNED, BIG_ENDIAN);
-                DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
-                SourceDataLine line = (SourceDataLine) AudioSystem.getLine(info);
-                line.open(format);
-                line.start();
-                int remaining = bytes.length;
-                while (remaining > 0) {
-                    remaining -= line.write(bytes, bytes.length - remaining, remaining);
+                SampleFormat format = clip == null ? SampleFormat.PCM_32 : clip.format;
+                SourceDataLine line = acquireLine(format);
+                boolean finished = false;
+                try {
+                    line.start();
+                    int[] samples = clip == null ? new int[PLAY_FRAMES] : null;
+                    byte[] bytes = new byte[PLAY_FRAMES * format.bytes];
+                    int count;
+                    boolean started = false;
+                    while ((count = next(samples, bytes)) >= 0) {
+                        Metrics.playback(line.available(), line.getBufferSize(), count, started);
+                        started = true;
+                        int remaining = count * format.bytes;
+                        while (remaining > 0) {
+                            remaining -= line.write(bytes, count * format.bytes - remaining, remaining);
+                        }
+                    }
+                    line.drain();
+                    line.stop();
+                    finished = true;
+                } finally {
+                    // a line left by a failure may still be running or hold unplayed bytes
+                    if (finished) {
+                        releaseLine(line);
+                    } else {
+                        line.flush();
+                        line.close();
+                    }
                 }
-                line.drain();
-                line.stop();
-                line.close();
-                playing = false;
             } catch (Exception e) {
+                Metrics.error(e);
                 e.printStackTrace();
+            } finally {
+                playing = false;
             }
         }
 
@@ -22,6 +22,7 @@ package fourier;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -42,9 +43,10 @@ import javax.swing.JScrollBar;
  */
 public class SoundView extends JPanel implements AdjustmentListener, ActionListener {
 
+    private final static DecimalFormat onedec = new DecimalFormat("#0.0");
+
     public void adjustmentValueChanged(AdjustmentEvent e) {
         scroll.setVisibleAmount((int)(view.getWidth()/scale+0.5));
-        view.recalc();
         view.repaint();
     }
 
@@ -55,78 +57,121 @@ public class SoundView extends JPanel implements AdjustmentListener, ActionListe
             scale = Math.pow(2,Math.log(scale)/Math.log(2)-0.5);
         }
         scroll.setVisibleAmount((int)Math.ceil(getWidth()/scale));
-        view.recalc();
+        view.refresh();
         repaint();
     }
 
-    private class SampleView extends JPanel implements MouseMotionListener, MouseListener {
+    private class SampleView extends JPanel implements MouseMotionListener, MouseListener, TileCache.Renderer {
 
-        private int[] dots;
+        private final TileCache tiles = new TileCache(this, 64);
+        private final int[] extremes = new int[2];
         private int sample;
         private int press;
 
         public SampleView() {
             super();
-            recalc();
             addMouseMotionListener(this);
             addMouseListener(this);
         }
 
-        public void recalc() {
-            int w = getWidth(), h = getHeight();
-            int start = scroll.getValue();
-            int last = Math.min((int)(start + w/scale + 1.5), samples.length);
-            dots = new int[(last - start)*2];
-            for (int i = 0; i < dots.length; i+=2) {
-                dots[i+0] = (int)(i/2*scale + 0.5);
-                dots[i+1] = (int)(h/2d + (double)samples[i/2+start]/2147483647.5*h + 0.5);
-            }
+        /**
+         * Discards the rendered waveform after the samples or scale changed.
+         */
+        public void refresh() {
+            tiles.invalidate();
+            repaint();
+        }
+
+        /**
+         * Discards the rendered waveform from sample onwards.
+         */
+        public void refresh(int sample) {
+            int from = xFromSample(Math.max(0, sample - 1));
+            tiles.invalidate(from, xFromSample(length) + 1);
+            repaint();
+        }
+
+        private int yFromSample(int value, int h) {
+            return (int)(h/2d + (double)value/2147483647.5*h + 0.5);
         }
 
-        public void doLayout() {
-            recalc();
+        private int origin() {
+            return (int)Math.floor(scroll.getValue()*scale + 0.5);
+        }
+
+        private int xFromSample(int sample) {
+            return (int)Math.floor(sample*scale + 0.5);
+        }
+
+        public void renderTile(Graphics2D g, int x, int width, int h) {
+            g.setColor(Color.GREEN);
+            if (scale < 0.5) {
+                // several samples per pixel, draw each column from the pyramid
+                for (int p = x; p < x + width; p++) {
+                    int from = (int)(p/scale);
+                    if (from >= length) {
+                        break;
+                    }
+                    int to = Math.min(length, Math.max(from + 1, (int)((p+1)/scale)));
+                    pyramid.range(from, to, extremes);
+                    g.drawLine(p - x, yFromSample(extremes[0], h), p - x, yFromSample(extremes[1], h));
+                }
+            } else {
+                int first = Math.max(0, (int)Math.floor(x/scale) - 1);
+                int last = Math.min(length - 1, (int)Math.ceil((x + width)/scale) + 1);
+                for (int i = first + 1; i <= last; i++) {
+                    g.drawLine(xFromSample(i-1) - x, yFromSample(samples[i-1], h), xFromSample(i) - x, yFromSample(samples[i], h));
+                }
+            }
         }
 
         public void paint(Graphics g) {
             int w = getWidth(), h = getHeight();
+            int origin = origin();
             g.setColor(Color.BLACK);
             g.fillRect(0,0,w,h);
-            try {
-                int a = (left-scroll.getValue())*2;
-                int b = (right-scroll.getValue())*2;
+            if (left >= 0 && right > left) {
+                int a = Math.max(0, xFromSample(left) - origin);
+                int b = Math.min(w, xFromSample(right) - origin);
                 g.setColor(Color.DARK_GRAY);
-                if (a < 0 && b > dots.length) {
-                    g.fillRect(0, 0, w, h);
-                } else if (a < 0) {
-                    g.fillRect(0, 0, dots[b], h);
-                } else if (b > dots.length) {
-                    g.fillRect(dots[a], 0, w-dots[a], h);
-                } else {
-                    g.fillRect(dots[a], 0, dots[b]-dots[a], h);
-                }
-            } catch (Exception e) {}
-            g.setColor(Color.GREEN);
-            for (int i = 2; i < dots.length; i+=2) {
-                g.drawLine(dots[i-2], dots[i-1], dots[i+0], dots[i+1]);
+                g.fillRect(a, 0, b-a, h);
             }
-            try {
-                int i = (sample-scroll.getValue())*2;
+            tiles.paint(g, origin, w, h);
+            if (sample >= 0 && sample < length) {
+                int x = xFromSample(sample) - origin, y = yFromSample(samples[sample], h);
                 g.setColor(Color.GRAY);
-                g.drawLine(dots[i], 0, dots[i], h);
+                g.drawLine(x, 0, x, h);
                 g.setColor(Color.RED);
-                g.fillOval(dots[i+0]-2, dots[i+1]-2, 4, 4);
+                g.fillOval(x-2, y-2, 4, 4);
                 g.setColor(Color.MAGENTA);
-                DecimalFormat onedec = new DecimalFormat("#0.0");
                 g.drawString("Sample: " + sample + " Amplitude: " + onedec.format(samples[sample]/2147483647.5*200), 5, 15);
-            } catch (Exception e) {} 
+            }
+        }
+
+        /**
+         * Repaints only the column and text the cursor covers at sample.
+         */
+        private void repaintCursor(int sample) {
+            if (sample >= 0) {
+                repaint(xFromSample(sample) - origin() - 3, 0, 7, getHeight());
+            }
+            repaint(0, 0, getWidth(), 20);
+        }
+
+        private void moveCursor(int sample) {
+            if (sample != this.sample) {
+                repaintCursor(this.sample);
+                this.sample = sample;
+                repaintCursor(sample);
+            }
         }
 
         private int sampleFromX(int x) {
-            return (int)(scroll.getValue() + x / scale + 0.5);
+            return (int)((x + origin()) / scale + 0.5);
         }
 
         public void mouseDragged(MouseEvent e) {
-            sample = Math.min(samples.length-1, sampleFromX(e.getX()));
+            sample = Math.min(length-1, sampleFromX(e.getX()));
             if (press > sample) {
                 left = sample;
                 right = press;
@@ -138,15 +183,14 @@ public class SoundView extends JPanel implements AdjustmentListener, ActionListe
         }
 
         public void mouseMoved(MouseEvent e) {
-            sample = Math.min(samples.length-1, sampleFromX(e.getX()));
-            repaint();
+            moveCursor(Math.min(length-1, sampleFromX(e.getX())));
         }
 
         public void mouseClicked(MouseEvent e) {
         }
 
         public void mousePressed(MouseEvent e) {
-            press = Math.min(samples.length-1, sampleFromX(e.getX()));
+            press = Math.min(length-1, sampleFromX(e.getX()));
             left = -1;
             right = -1;
         }
@@ -158,13 +202,14 @@ public class SoundView extends JPanel implements AdjustmentListener, ActionListe
         }
 
         public void mouseExited(MouseEvent e) {
-            sample = -1;
-            repaint();
+            moveCursor(-1);
         }
 
     }
 
     private int[] samples;
+    private int length;
+    private WaveformPyramid pyramid;
     private int left,right;
     private double scale;
     private JScrollBar scroll;
@@ -174,6 +219,8 @@ public class SoundView extends JPanel implements AdjustmentListener, ActionListe
     public SoundView() {
         super(new BorderLayout());
         samples = new int[0];
+        length = 0;
+        pyramid = new WaveformPyramid();
         scale = 1D;
         scroll = new JScrollBar(JScrollBar.HORIZONTAL,0,0,0,0);
         scroll.addAdjustmentListener(this);
@@ -195,7 +242,7 @@ public class SoundView extends JPanel implements AdjustmentListener, ActionListe
     public int[] getSelection() {
         int[] res;
         if (right - left < 1) {
-            res = (int[]) Arrays.copyOf(samples, samples.length);
+            res = (int[]) Arrays.copyOf(samples, length);
         } else {
             res = new int[right-left+1];
             System.arraycopy(samples, left, res, 0, right - left + 1);
@@ -203,21 +250,40 @@ public class SoundView extends JPanel implements AdjustmentListener, ActionListe
         return res;
     }
 
+    /**
+     * Number of samples shown.
+     */
+    public int getLength() {
+        return length;
+    }
+
     public void setSamples(int[] samples) {
         this.samples = samples;
-        scroll.setMaximum(samples.length);
+        length = samples.length;
+        pyramid = new WaveformPyramid(samples, 0, length);
+        scroll.setMaximum(length);
         scroll.setValue(0);
         scroll.setVisibleAmount((int)(view.getWidth()/scale+0.5));
         left = -1;
         right = -1;
-        view.recalc();
+        view.refresh();
         repaint();
     }
 
-    public void setScale(double scale) {
-        this.scale = scale;
-        view.recalc();
-        view.repaint();
+    /**
+     * Appends samples to the end of those shown, extending the waveform
+     * pyramid incrementally, for instance while recording.
+     */
+    public void appendSamples(int[] samples, int off, int len) {
+        if (length + len > this.samples.length) {
+            this.samples = Arrays.copyOf(this.samples, Math.max(length + len, this.samples.length * 2));
+        }
+        System.arraycopy(samples, off, this.samples, length, len);
+        int start = length;
+        length += len;
+        pyramid.append(samples, off, len);
+        scroll.setMaximum(length);
+        view.refresh(start);
     }
 
 }
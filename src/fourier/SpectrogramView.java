@@ -0,0 +1,431 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.text.DecimalFormat;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.swing.JButton;
+import javax.swing.JPanel;
+import javax.swing.JScrollBar;
+
+/**
+ * Spectrogram of a recording, time along x with one column every hop samples
+ * and frequency up the y axis. Columns are computed in tiles of TILE columns
+ * on a shared background pool, the visible tiles first and their neighbours
+ * after, so long recordings open immediately and only the parts looked at are
+ * ever transformed. Finished tiles are kept in a bounded LRU cache.
+ *
+ * @author benland100
+ */
+public class SpectrogramView extends JPanel implements AdjustmentListener, ActionListener {
+
+    /** Columns per tile */
+    public final static int TILE = 256;
+    /** Tiles kept rendered, across every zoom level */
+    public final static int CACHE_TILES = 96;
+    /** Tiles on each side of the visible ones computed ahead of scrolling */
+    public final static int PREFETCH = 2;
+    /** Level in decibels below full scale shown as black */
+    public final static double FLOOR_DB = -110D;
+    public final static int MIN_HOP = 32;
+    public final static int MAX_HOP = 1 << 16;
+
+    private final static DecimalFormat onedec = new DecimalFormat("#0.0");
+    private final static DecimalFormat threedec = new DecimalFormat("#0.000");
+    private final static int[] palette = palette();
+
+    private final static ThreadPoolExecutor workers = new ThreadPoolExecutor(
+            Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(),
+            1, TimeUnit.MINUTES, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Spectrogram");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+
+    static {
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Black through blue, magenta, red and yellow to white.
+     */
+    private static int[] palette() {
+        int[] stops = { 0x000000, 0x000080, 0x8000a0, 0xe00000, 0xffc000, 0xffffff };
+        int[] result = new int[256];
+        for (int i = 0; i < 256; i++) {
+            double pos = i / 255D * (stops.length - 1);
+            int s = Math.min(stops.length - 2, (int) pos);
+            double f = pos - s;
+            int rgb = 0;
+            for (int shift = 16; shift >= 0; shift -= 8) {
+                int a = (stops[s] >> shift) & 0xff, b = (stops[s + 1] >> shift) & 0xff;
+                rgb |= ((int) (a + (b - a) * f + 0.5)) << shift;
+            }
+            result[i] = rgb;
+        }
+        return result;
+    }
+
+    public void adjustmentValueChanged(AdjustmentEvent e) {
+        view.repaint();
+    }
+
+    public void actionPerformed(ActionEvent e) {
+        long center = (long) (scroll.getValue() + view.getWidth() / 2) * hop;
+        if (e.getSource() == in) {
+            hop = Math.max(MIN_HOP, hop / 2);
+        } else {
+            hop = Math.min(MAX_HOP, hop * 2);
+        }
+        updateScroll();
+        scroll.setValue((int) Math.max(0, center / hop - view.getWidth() / 2));
+        view.repaint();
+    }
+
+    /**
+     * Computes one tile of one zoom level.
+     */
+    private class Job implements Runnable, Comparable<Job> {
+
+        private final long key;
+        private final int version, hop, tile;
+        private long generation;
+        private int distance;
+
+        public Job(long key, int version, int hop, int tile) {
+            this.key = key;
+            this.version = version;
+            this.hop = hop;
+            this.tile = tile;
+        }
+
+        /**
+         * Newest requests first, and within a request the tiles closest to
+         * the visible ones.
+         */
+        public int compareTo(Job job) {
+            if (generation != job.generation) {
+                return generation > job.generation ? -1 : 1;
+            }
+            return distance - job.distance;
+        }
+
+        public void run() {
+            boolean wanted;
+            synchronized (pending) {
+                pending.remove(key);
+                wanted = version == SpectrogramView.this.version && hop == SpectrogramView.this.hop
+                        && tile >= first_tile - PREFETCH && tile <= last_tile + PREFETCH;
+            }
+            if (!wanted) {
+                return;
+            }
+            BufferedImage image = render(version, hop, tile);
+            if (image == null) {
+                return;
+            }
+            synchronized (tiles) {
+                if (version != SpectrogramView.this.version) {
+                    return;
+                }
+                tiles.put(key, image);
+                Iterator<Map.Entry<Long,BufferedImage>> eldest = tiles.entrySet().iterator();
+                while (tiles.size() > CACHE_TILES && eldest.hasNext()) {
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+            view.repaint();
+        }
+
+    }
+
+    /**
+     * Transforms the columns of a tile into an image with one row per bin,
+     * the highest frequency on top. Returns null if the samples were replaced
+     * in the meantime.
+     */
+    private BufferedImage render(int version, int hop, int tile) {
+        int[] samples;
+        synchronized (tiles) {
+            if (version != this.version) {
+                return null;
+            }
+            samples = this.samples;
+        }
+        int rows = high - low;
+        BufferedImage image = new BufferedImage(TILE, Math.max(rows, 1), BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        RealFFT plan = RealFFT.acquire(window);
+        try {
+            int[] padded = new int[window];
+            double scale = 0D;
+            for (int i = 0; i < window; i++) {
+                scale += coefficients[i];
+            }
+            // magnitude of a full scale sine, so 0 dB is the loudest possible tone
+            scale *= 2147483647.5D / 2D;
+            for (int c = 0; c < TILE; c++) {
+                long start = (long) (tile * TILE + c) * hop - window / 2;
+                if (start >= samples.length) {
+                    break;
+                }
+                if (start >= 0 && start + window <= samples.length) {
+                    plan.load(samples, (int) start, coefficients);
+                } else {
+                    for (int i = 0; i < window; i++) {
+                        long j = start + i;
+                        padded[i] = j >= 0 && j < samples.length ? samples[(int) j] : 0;
+                    }
+                    plan.load(padded, 0, coefficients);
+                }
+                plan.transform();
+                for (int r = 0; r < rows; r++) {
+                    int bin = low + rows - 1 - r;
+                    double mag = Math.hypot(plan.real[bin], plan.imag[bin]) / scale;
+                    double db = mag > 0D ? 20D * Math.log10(mag) : FLOOR_DB;
+                    int level = (int) ((db - FLOOR_DB) / -FLOOR_DB * 255D + 0.5);
+                    pixels[r * TILE + c] = palette[Math.max(0, Math.min(255, level))];
+                }
+            }
+        } finally {
+            RealFFT.release(plan);
+        }
+        return image;
+    }
+
+    private class GramView extends JPanel implements MouseMotionListener, MouseListener {
+
+        private int mouse_x = -1, mouse_y = -1;
+
+        public GramView() {
+            super();
+            addMouseMotionListener(this);
+            addMouseListener(this);
+        }
+
+        public void paint(Graphics g) {
+            int w = getWidth(), h = getHeight();
+            int origin = scroll.getValue();
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, w, h);
+            int columns = columns();
+            if (columns == 0 || w <= 0) {
+                return;
+            }
+            int first = origin / TILE, last = Math.min(columns - 1, origin + w - 1) / TILE;
+            synchronized (pending) {
+                first_tile = first;
+                last_tile = last;
+            }
+            long generation = ++generations;
+            for (int t = first; t <= last; t++) {
+                int x = t * TILE - origin;
+                BufferedImage image = tile(t, generation, 0);
+                if (image == null) {
+                    g.setColor(Color.DARK_GRAY);
+                    g.fillRect(x, 0, Math.min(TILE, columns - t * TILE), h);
+                } else {
+                    g.drawImage(image, x, 0, x + TILE, h, 0, 0, TILE, image.getHeight(), null);
+                }
+            }
+            int max_tile = (columns - 1) / TILE;
+            for (int d = 1; d <= PREFETCH; d++) {
+                if (last + d <= max_tile) {
+                    tile(last + d, generation, d);
+                }
+                if (first - d >= 0) {
+                    tile(first - d, generation, d);
+                }
+            }
+            if (mouse_x >= 0 && mouse_x < w && h > 0) {
+                double seconds = (double) (origin + mouse_x) * hop / SoundUtils.SAMPLE_RATE;
+                double bin = low + (h - 1 - mouse_y + 0.5) * (high - low) / h;
+                double freq = bin * SoundUtils.SAMPLE_RATE / window;
+                g.setColor(Color.GRAY);
+                g.drawLine(mouse_x, 0, mouse_x, h);
+                g.drawLine(0, mouse_y, w, mouse_y);
+                g.setColor(Color.WHITE);
+                g.drawString("Time: " + threedec.format(seconds) + "s Freq: " + onedec.format(freq) + "Hz", 5, 15);
+            }
+        }
+
+        public void mouseDragged(MouseEvent e) {
+            mouseMoved(e);
+        }
+
+        public void mouseMoved(MouseEvent e) {
+            mouse_x = e.getX();
+            mouse_y = e.getY();
+            repaint();
+        }
+
+        public void mouseClicked(MouseEvent e) {
+        }
+
+        public void mousePressed(MouseEvent e) {
+        }
+
+        public void mouseReleased(MouseEvent e) {
+        }
+
+        public void mouseEntered(MouseEvent e) {
+        }
+
+        public void mouseExited(MouseEvent e) {
+            mouse_x = -1;
+            repaint();
+        }
+
+    }
+
+    /**
+     * The cached image of tile t at the current zoom, or null after queueing
+     * it (again, at the newest generation) for the workers.
+     */
+    private BufferedImage tile(int t, long generation, int distance) {
+        long key = ((long) hop << 32) | t;
+        synchronized (tiles) {
+            BufferedImage image = tiles.get(key);
+            if (image != null) {
+                return image;
+            }
+        }
+        Job job;
+        synchronized (pending) {
+            job = pending.get(key);
+            if (job != null) {
+                if (job.generation == generation || !workers.remove(job)) {
+                    return null;
+                }
+            } else {
+                job = new Job(key, version, hop, t);
+                pending.put(key, job);
+            }
+            job.generation = generation;
+            job.distance = distance;
+        }
+        workers.execute(job);
+        return null;
+    }
+
+    private int[] samples;
+    private final int window;
+    private final double[] coefficients;
+    private final int low, high;
+    private volatile int hop;
+    private volatile int version;
+    private long generations;
+    private int first_tile, last_tile;
+    private final LinkedHashMap<Long,BufferedImage> tiles = new LinkedHashMap<Long,BufferedImage>(16, 0.75f, true);
+    private final HashMap<Long,Job> pending = new HashMap<Long,Job>();
+    private JScrollBar scroll;
+    private GramView view;
+    private JButton in,out;
+
+    /**
+     * A spectrogram with window samples per transform, showing min_freq to
+     * max_freq.
+     */
+    public SpectrogramView(int window, STFT.Window function, double min_freq, double max_freq) {
+        super(new BorderLayout());
+        this.window = window;
+        coefficients = function.coefficients(window);
+        low = Math.max(0, (int) (window / SoundUtils.SAMPLE_RATE * min_freq));
+        high = Math.max(low, Math.min(window / 2, (int) (window / SoundUtils.SAMPLE_RATE * max_freq)) + 1);
+        samples = new int[0];
+        hop = window / 4;
+        scroll = new JScrollBar(JScrollBar.HORIZONTAL,0,0,0,0);
+        scroll.addAdjustmentListener(this);
+        view = new GramView();
+        add(view,BorderLayout.CENTER);
+        JPanel south = new JPanel(new BorderLayout());
+        south.add(scroll,BorderLayout.CENTER);
+        JPanel southeast = new JPanel(new GridLayout(1,2));
+        in = new JButton("+");
+        in.addActionListener(this);
+        southeast.add(in);
+        out = new JButton("-");
+        out.addActionListener(this);
+        southeast.add(out);
+        south.add(southeast,BorderLayout.EAST);
+        add(south,BorderLayout.SOUTH);
+    }
+
+    private int columns() {
+        return (samples.length + hop - 1) / hop;
+    }
+
+    private void updateScroll() {
+        scroll.setMaximum(columns());
+        scroll.setVisibleAmount(Math.max(1, view.getWidth()));
+        scroll.setBlockIncrement(Math.max(1, view.getWidth()));
+    }
+
+    /**
+     * Shows new samples, discarding every tile computed for the old ones.
+     */
+    public void setSamples(int[] samples) {
+        synchronized (tiles) {
+            this.samples = samples;
+            version++;
+            tiles.clear();
+        }
+        updateScroll();
+        scroll.setValue(0);
+        repaint();
+    }
+
+    public void doLayout() {
+        super.doLayout();
+        updateScroll();
+    }
+
+    /**
+     * Samples between columns at the current zoom.
+     */
+    public int getHop() {
+        return hop;
+    }
+
+}
@@ -0,0 +1,39 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+/**
+ * Renders a fixed set of partials into any range of an output buffer.
+ *
+ * @author benland100
+ */
+public interface Synthesizer {
+
+    /**
+     * Adds the partials into samples [from, to), where sample i is at time
+     * i/framerate. Ranges starting on a multiple of BLOCK render the same
+     * samples however a longer range is split up.
+     */
+    public void render(int[] samples, int from, int to);
+
+    /** Alignment at which ranges can be rendered independently */
+    public final static int BLOCK = 1 << 14;
+
+}
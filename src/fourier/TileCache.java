@@ -0,0 +1,133 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.awt.AlphaComposite;
+import java.awt.Composite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Offscreen cache of the data layer of a horizontally scrolling view, kept as
+ * transparent image tiles TILE pixels wide at fixed positions in the view's
+ * full, unscrolled width. Scrolling only blits tiles, mostly ones that are
+ * already rendered, and overlays such as a cursor can be drawn on top without
+ * touching the data. The least recently drawn tiles are recycled once more
+ * than limit are held.
+ *
+ * @author benland100
+ */
+public class TileCache {
+
+    public final static int TILE = 256;
+
+    public interface Renderer {
+
+        /**
+         * Draws the data layer between x and x+width of the full, unscrolled
+         * view into a tile, where g's origin is at x.
+         */
+        public void renderTile(Graphics2D g, int x, int width, int height);
+
+    }
+
+    private final Renderer renderer;
+    private final int limit;
+    private final LinkedHashMap<Integer,BufferedImage> tiles = new LinkedHashMap<Integer,BufferedImage>(16, 0.75f, true);
+    private final ArrayList<BufferedImage> free = new ArrayList<BufferedImage>();
+    private int height = -1;
+
+    public TileCache(Renderer renderer, int limit) {
+        this.renderer = renderer;
+        this.limit = limit;
+    }
+
+    /**
+     * Discards every rendered tile, for when the data or scale changes.
+     */
+    public void invalidate() {
+        free.addAll(tiles.values());
+        tiles.clear();
+    }
+
+    /**
+     * Discards the rendered tiles overlapping pixels [from, to) of the full
+     * view, for when only part of the data changes.
+     */
+    public void invalidate(int from, int to) {
+        for (int t = Math.max(0, from) / TILE, last = (to - 1) / TILE; t <= last; t++) {
+            BufferedImage image = tiles.remove(t);
+            if (image != null) {
+                free.add(image);
+            }
+        }
+    }
+
+    /**
+     * Draws the tiles covering the clip of a view width by height pixels whose
+     * left edge is at origin in the full view.
+     */
+    public void paint(Graphics g, int origin, int width, int height) {
+        if (height != this.height) {
+            tiles.clear();
+            free.clear();
+            this.height = height;
+        }
+        if (height <= 0 || width <= 0) {
+            return;
+        }
+        Rectangle clip = g.getClipBounds();
+        int left = clip == null ? 0 : Math.max(0, clip.x);
+        int right = clip == null ? width : Math.min(width, clip.x + clip.width);
+        for (int t = (origin + left) / TILE, last = (origin + right - 1) / TILE; t <= last; t++) {
+            g.drawImage(tile(t), t * TILE - origin, 0, null);
+        }
+    }
+
+    private BufferedImage tile(int t) {
+        BufferedImage image = tiles.get(t);
+        if (image != null) {
+            return image;
+        }
+        image = free.isEmpty() ? new BufferedImage(TILE, height, BufferedImage.TYPE_INT_ARGB) : free.remove(free.size() - 1);
+        Graphics2D g = image.createGraphics();
+        Composite composite = g.getComposite();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, TILE, height);
+        g.setComposite(composite);
+        g.setClip(0, 0, TILE, height);
+        renderer.renderTile(g, t * TILE, TILE, height);
+        g.dispose();
+        tiles.put(t, image);
+        Iterator<Map.Entry<Integer,BufferedImage>> eldest = tiles.entrySet().iterator();
+        while (tiles.size() > limit && eldest.hasNext()) {
+            free.add(eldest.next().getValue());
+            eldest.remove();
+        }
+        return image;
+    }
+
+}
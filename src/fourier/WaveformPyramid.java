@@ -0,0 +1,136 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Min/max decimation pyramid of a growing sequence of samples. Level k keeps
+ * the minimum and maximum of each bucket of 4^(k+1) samples, so the extremes of
+ * any range can be found from a handful of buckets of the coarsest level that
+ * still fits inside it. Samples can be appended at any time, and the pyramid
+ * takes about two thirds of the memory of the samples themselves.
+ *
+ * @author benland100
+ */
+public class WaveformPyramid {
+
+    /** log2 of the number of buckets of one level merged into the next */
+    public final static int SHIFT = 2;
+
+    private final ArrayList<int[]> mins = new ArrayList<int[]>();
+    private final ArrayList<int[]> maxs = new ArrayList<int[]>();
+    private int length = 0;
+
+    public WaveformPyramid() {
+    }
+
+    public WaveformPyramid(int[] samples, int off, int len) {
+        append(samples, off, len);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void append(int[] samples, int off, int len) {
+        if (len <= 0) {
+            return;
+        }
+        final int start = length, end = length + len;
+        int[] min = level(0, (end - 1) >> SHIFT), max = maxs.get(0);
+        for (int i = start; i < end; i++) {
+            final int sample = samples[off + i - start], bucket = i >> SHIFT;
+            if ((i & ((1 << SHIFT) - 1)) == 0) {
+                min[bucket] = max[bucket] = sample;
+            } else {
+                if (sample < min[bucket]) min[bucket] = sample;
+                if (sample > max[bucket]) max[bucket] = sample;
+            }
+        }
+        length = end;
+        // merge the touched buckets upwards while a level has more than one bucket
+        for (int level = 1; ((end - 1) >> (level * SHIFT)) > 0; level++) {
+            final int shift = (level + 1) * SHIFT;
+            final int first = level < mins.size() ? start >> shift : 0;
+            final int last = (end - 1) >> shift;
+            final int children = (end - 1) >> (level * SHIFT);
+            min = level(level, last);
+            max = maxs.get(level);
+            final int[] child_min = mins.get(level - 1), child_max = maxs.get(level - 1);
+            for (int b = first; b <= last; b++) {
+                int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+                for (int c = b << SHIFT, stop = Math.min(children, c + (1 << SHIFT) - 1); c <= stop; c++) {
+                    if (child_min[c] < lo) lo = child_min[c];
+                    if (child_max[c] > hi) hi = child_max[c];
+                }
+                min[b] = lo;
+                max[b] = hi;
+            }
+        }
+    }
+
+    /**
+     * Minimums of the given level, creating the level or growing both of its
+     * arrays so that bucket fits.
+     */
+    private int[] level(int level, int bucket) {
+        if (level == mins.size()) {
+            mins.add(new int[16]);
+            maxs.add(new int[16]);
+        }
+        int[] min = mins.get(level);
+        if (bucket >= min.length) {
+            int size = Math.max(bucket + 1, min.length * 2);
+            min = Arrays.copyOf(min, size);
+            mins.set(level, min);
+            maxs.set(level, Arrays.copyOf(maxs.get(level), size));
+        }
+        return min;
+    }
+
+    /**
+     * Stores the minimum and maximum of samples [from, to) into result[0] and
+     * result[1]. The range is widened to the bucket boundaries of the coarsest
+     * level with buckets no larger than the range, so at most a few buckets
+     * are read and the extremes may include up to one bucket on either side.
+     */
+    public void range(int from, int to, int[] result) {
+        if (length == 0) {
+            result[0] = result[1] = 0;
+            return;
+        }
+        int span = Math.max(1, to - from);
+        int level = (31 - Integer.numberOfLeadingZeros(span)) / SHIFT - 1;
+        level = Math.max(0, Math.min(level, mins.size() - 1));
+        int shift = (level + 1) * SHIFT;
+        int first = from >> shift, last = Math.min((Math.max(to, from + 1) - 1) >> shift, (length - 1) >> shift);
+        int[] min = mins.get(level), max = maxs.get(level);
+        int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+        for (int b = first; b <= last; b++) {
+            if (min[b] < lo) lo = min[b];
+            if (max[b] > hi) hi = max[b];
+        }
+        result[0] = lo;
+        result[1] = hi;
+    }
+
+}
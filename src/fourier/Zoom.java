@@ -0,0 +1,170 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+/**
+ * Band limited transforms that evaluate the spectrum only at the angular
+ * frequencies w0 + k*dw for k in [0, bins), X(w) = sum x[j]*e^(-i*w*j).
+ *
+ * A handful of bins is cheapest with the Goertzel recurrence at O(N) per bin.
+ * Many bins at arbitrary spacing use the chirp-z transform, a Bluestein
+ * convolution of length N+bins, so a narrow band can be sampled at any
+ * resolution without transforming the whole spectrum.
+ *
+ * @author benland100
+ */
+public class Zoom {
+
+    /** Rough cost of one Goertzel step measured in radix-2 butterflies */
+    public final static double GOERTZEL_COST = 2D;
+
+    /**
+     * Approximate cost in radix-2 butterflies of a complex FFT of length n.
+     */
+    public static double fftCost(int n) {
+        if (n <= 1) {
+            return 0D;
+        }
+        if (FFT.isPowerOfTwo(n)) {
+            return n / 2D * Integer.numberOfTrailingZeros(n);
+        }
+        int m = Integer.highestOneBit(2 * n - 1) << 1;
+        return 2D * fftCost(m) + 2D * m;
+    }
+
+    /**
+     * Approximate cost in radix-2 butterflies of a real FFT of length n.
+     */
+    public static double realFFTCost(int n) {
+        return n % 2 == 0 ? fftCost(n / 2) + n / 2D : fftCost(n);
+    }
+
+    /**
+     * True if computing bins individually with the Goertzel recurrence is
+     * cheaper than a full real FFT of n samples.
+     */
+    public static boolean useGoertzel(int n, int bins) {
+        return GOERTZEL_COST * bins * n < realFFTCost(n);
+    }
+
+    /**
+     * True if the chirp-z transform of bins bins is cheaper than Goertzel.
+     */
+    public static boolean useChirpZ(int n, int bins) {
+        int m = Integer.highestOneBit(Math.max(n + bins - 2, 1)) << 1;
+        return 2D * fftCost(m) + 3D * m < GOERTZEL_COST * bins * n;
+    }
+
+    /**
+     * Evaluates bins spectrum points with whichever of Goertzel and chirp-z is
+     * cheaper, writing them into real/imag.
+     */
+    public static void transform(int[] samples, double w0, double dw, int bins, double[] real, double[] imag) {
+        if (useChirpZ(samples.length, bins)) {
+            chirpz(samples, w0, dw, bins, real, imag);
+        } else {
+            goertzel(samples, w0, dw, bins, real, imag);
+        }
+    }
+
+    public static void goertzel(int[] samples, double w0, double dw, int bins, double[] real, double[] imag) {
+        goertzel(new Samples.Ints(samples), w0, dw, bins, real, imag);
+    }
+
+    /**
+     * Goertzel over samples of any format, scaled to the PCM_32 range.
+     */
+    public static void goertzel(Samples samples, double w0, double dw, int bins, double[] real, double[] imag) {
+        final int n = samples.length;
+        final double scale = samples.format.scale;
+        for (int k = 0; k < bins; k++) {
+            final double w = w0 + k * dw;
+            final double coeff = 2D * Math.cos(w);
+            double s0, s1 = 0D, s2 = 0D;
+            for (int j = 0; j < n; j++) {
+                s0 = samples.get(j) * scale + coeff * s1 - s2;
+                s2 = s1;
+                s1 = s0;
+            }
+            // X(w) = e^(-i*w*(n-1)) * (s1 - e^(-i*w)*s2)
+            final double yr = s1 - Math.cos(w) * s2, yi = Math.sin(w) * s2;
+            final double a = -((w * (n - 1)) % (2D * Math.PI));
+            final double c = Math.cos(a), s = Math.sin(a);
+            real[k] = yr * c - yi * s;
+            imag[k] = yr * s + yi * c;
+        }
+    }
+
+    public static void chirpz(int[] samples, double w0, double dw, int bins, double[] real, double[] imag) {
+        final int n = samples.length;
+        if (n == 0 || bins == 0) {
+            for (int k = 0; k < bins; k++) {
+                real[k] = imag[k] = 0D;
+            }
+            return;
+        }
+        // w*j = w0*j + dw*(j^2 + k^2 - (k-j)^2)/2
+        final int m = Integer.highestOneBit(Math.max(n + bins - 2, 1)) << 1;
+        final double half = dw / 2D;
+        FFT a = FFT.acquire(m), b = FFT.acquire(m);
+        final double[] a_real = a.real, a_imag = a.imag;
+        final double[] b_real = b.real, b_imag = b.imag;
+        for (int j = 0; j < m; j++) {
+            a_real[j] = a_imag[j] = b_real[j] = b_imag[j] = 0D;
+        }
+        for (int j = 0; j < n; j++) {
+            double angle = -(w0 * j + half * ((double) j * j));
+            a_real[j] = samples[j] * Math.cos(angle);
+            a_imag[j] = samples[j] * Math.sin(angle);
+        }
+        for (int j = 0, hi = Math.max(n, bins); j < hi; j++) {
+            double angle = half * ((double) j * j);
+            double c = Math.cos(angle), s = Math.sin(angle);
+            if (j < bins) {
+                b_real[j] = c;
+                b_imag[j] = s;
+            }
+            if (j > 0 && j < n) {
+                b_real[m - j] = c;
+                b_imag[m - j] = s;
+            }
+        }
+        a.transform(a_real, a_imag);
+        b.transform(b_real, b_imag);
+        // pointwise product, conjugated so a forward transform inverts it
+        for (int j = 0; j < m; j++) {
+            double r = a_real[j] * b_real[j] - a_imag[j] * b_imag[j];
+            double i = a_real[j] * b_imag[j] + a_imag[j] * b_real[j];
+            a_real[j] = r;
+            a_imag[j] = -i;
+        }
+        a.transform(a_real, a_imag);
+        for (int k = 0; k < bins; k++) {
+            double r = a_real[k] / m, i = -a_imag[k] / m;
+            double angle = -half * ((double) k * k);
+            double c = Math.cos(angle), s = Math.sin(angle);
+            real[k] = r * c - i * s;
+            imag[k] = r * s + i * c;
+        }
+        FFT.release(a);
+        FFT.release(b);
+    }
+
+}
@@ -0,0 +1,164 @@
+/**
+ *  Copyright 2010 by Benjamin J. Land (a.k.a. BenLand100)
+ *
+ *  This file is part of Fourier.
+ *
+ *  CPascal is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  CPascal is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Fourier. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fourier;
+
+import java.nio.ByteOrder;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels written against the incubating Vector API, using the widest
+ * vectors the CPU supports. Only loaded by Kernels.get, through reflection,
+ * so the rest of the project builds and runs without the module.
+ *
+ * Butterflies run lanes of a stage at once wherever a stage's groups are at
+ * least as wide as a vector, the oscillator advances one sample per lane and
+ * rotates all lanes by lanes*step at once, and the conversions swap bytes
+ * with a shuffle. Butterflies and conversions give bit-identical results to
+ * the scalar kernels; the oscillator's rotation takes a different path to
+ * the same phases, so samples may differ by one.
+ *
+ * @author benland100
+ */
+class VectorKernels extends Kernels {
+
+    private final static VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private final static VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private final static VectorSpecies<Integer> WORDS = IntVector.SPECIES_PREFERRED;
+    private final static boolean SWAP = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    private final static VectorShuffle<Byte> REVERSE = VectorShuffle.fromArray(BYTES, reversed(), 0);
+
+    /**
+     * Shuffle indices reversing the bytes of every int.
+     */
+    private static int[] reversed() {
+        int[] result = new int[BYTES.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (i & ~3) + 3 - (i & 3);
+        }
+        return result;
+    }
+
+    /** Per thread buffer of one resynchronization period of oscillator values */
+    private final static ThreadLocal<double[]> scratch = new ThreadLocal<double[]>() {
+        protected double[] initialValue() {
+            return new double[OscillatorBank.RESYNC + DOUBLES.length()];
+        }
+    };
+
+    String name() {
+        return "vector " + DOUBLES;
+    }
+
+    void butterflies(double[] real, double[] imag, double[] tw_real, double[] tw_imag, int h, int from, int to) {
+        final int lanes = DOUBLES.length();
+        if (h < lanes) {
+            super.butterflies(real, imag, tw_real, tw_imag, h, from, to);
+            return;
+        }
+        final int mask = h - 1;
+        for (int k = from; k < to; ) {
+            final int j = k & mask;
+            if (j + lanes > h || k + lanes > to) {
+                super.butterflies(real, imag, tw_real, tw_imag, h, k, k + 1);
+                k++;
+                continue;
+            }
+            final int a = ((k - j) << 1) + j, b = a + h;
+            DoubleVector wr = DoubleVector.fromArray(DOUBLES, tw_real, h + j);
+            DoubleVector wi = DoubleVector.fromArray(DOUBLES, tw_imag, h + j);
+            DoubleVector br = DoubleVector.fromArray(DOUBLES, real, b);
+            DoubleVector bi = DoubleVector.fromArray(DOUBLES, imag, b);
+            DoubleVector tr = br.mul(wr).sub(bi.mul(wi));
+            DoubleVector ti = br.mul(wi).add(bi.mul(wr));
+            DoubleVector ar = DoubleVector.fromArray(DOUBLES, real, a);
+            DoubleVector ai = DoubleVector.fromArray(DOUBLES, imag, a);
+            ar.sub(tr).intoArray(real, b);
+            ai.sub(ti).intoArray(imag, b);
+            ar.add(tr).intoArray(real, a);
+            ai.add(ti).intoArray(imag, a);
+            k += lanes;
+        }
+    }
+
+    void oscillator(int[] samples, int from, int to, double step, double phase, double scale) {
+        final int lanes = DOUBLES.length();
+        final double[] values = scratch.get();
+        final double cw = Math.cos(step), sw = Math.sin(step);
+        final double cl = Math.cos(step * lanes), sl = Math.sin(step * lanes);
+        for (int start = from, end; start < to; start = end) {
+            end = Math.min(to, (start / OscillatorBank.RESYNC + 1) * OscillatorBank.RESYNC);
+            // lane l starts at sample start+l
+            double c1 = Math.cos(step * start + phase), s1 = Math.sin(step * start + phase), t;
+            for (int l = 0; l < lanes; l++) {
+                values[l] = c1;
+                values[lanes + l] = s1;
+                t = c1 * cw - s1 * sw;
+                s1 = s1 * cw + c1 * sw;
+                c1 = t;
+            }
+            DoubleVector c = DoubleVector.fromArray(DOUBLES, values, 0);
+            DoubleVector s = DoubleVector.fromArray(DOUBLES, values, lanes), u;
+            final int count = end - start;
+            for (int i = 0; i < count; i += lanes) {
+                s.mul(scale).intoArray(values, i);
+                u = c.mul(cl).sub(s.mul(sl));
+                s = s.mul(cl).add(c.mul(sl));
+                c = u;
+            }
+            // double to int lane conversions are not compiled to vector
+            // instructions everywhere, so the samples are added one by one
+            for (int i = 0; i < count; i++) {
+                samples[start + i] += values[i];
+            }
+        }
+    }
+
+    void decode(byte[] bytes, int from, int[] samples, int off, int count) {
+        final int words = WORDS.length();
+        int end = off + count;
+        for (; off + words <= end; off += words, from += words * 4) {
+            ByteVector block = ByteVector.fromArray(BYTES, bytes, from);
+            if (SWAP) {
+                block = block.rearrange(REVERSE);
+            }
+            block.reinterpretAsInts().intoArray(samples, off);
+        }
+        super.decode(bytes, from, samples, off, end - off);
+    }
+
+    void encode(int[] samples, int off, byte[] bytes, int to, int count) {
+        final int words = WORDS.length();
+        int end = off + count;
+        for (; off + words <= end; off += words, to += words * 4) {
+            ByteVector block = IntVector.fromArray(WORDS, samples, off).reinterpretAsBytes();
+            if (SWAP) {
+                block = block.rearrange(REVERSE);
+            }
+            block.intoArray(bytes, to);
+        }
+        super.encode(samples, off, bytes, to, end - off);
+    }
+
+}